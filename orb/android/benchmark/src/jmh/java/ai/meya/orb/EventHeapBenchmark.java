@@ -0,0 +1,42 @@
+package ai.meya.orb;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jol.info.GraphLayout;
+
+import io.flutter.plugin.common.StandardMessageCodec;
+
+/**
+ * Heap retained by an event stream that a host app keeps, as decoded by the
+ * method channel's StandardMessageCodec and as an {@link OrbCompactMap}
+ * copy. Sizes are measured by walking the object graphs with JOL, shared
+ * keys and strings are counted once per stream.
+ *
+ *     ./gradlew :benchmark:heapBenchmark
+ */
+public final class EventHeapBenchmark {
+    private static final int[] EVENTS = {10, 100, 1000, 10000};
+
+    private EventHeapBenchmark() {}
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) {
+        System.out.printf("%8s %16s %16s %8s%n", "events", "HashMap B/event", "compact B/event", "ratio");
+        for (int events : EVENTS) {
+            ByteBuffer encoded = StandardMessageCodec.INSTANCE.encodeMessage(OrbBenchmarkEvents.eventStream(events));
+            encoded.rewind();
+            List<Map<String, Object>> decoded =
+                    (List<Map<String, Object>>) StandardMessageCodec.INSTANCE.decodeMessage(encoded);
+            List<Map<String, Object>> compact = OrbCompactMap.listOf(decoded);
+
+            long decodedSize = GraphLayout.parseInstance(decoded).totalSize();
+            long compactSize = GraphLayout.parseInstance(compact).totalSize();
+            System.out.printf(
+                    "%8d %16d %16d %7.1fx%n",
+                    events, decodedSize / events, compactSize / events, decodedSize / (double) compactSize
+            );
+        }
+    }
+}
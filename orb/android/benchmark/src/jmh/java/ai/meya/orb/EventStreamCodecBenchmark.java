@@ -0,0 +1,72 @@
+package ai.meya.orb;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.flutter.plugin.common.StandardMessageCodec;
+
+/**
+ * Encoding and decoding of event streams, with the method channel's
+ * StandardMessageCodec and with the msgpack frames of the binary channel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventStreamCodecBenchmark {
+    private static final byte[] ARGUMENTS_KEY = "arguments".getBytes(OrbMsgPackReader.UTF_8);
+
+    @Param({"10", "100", "1000", "10000"})
+    public int events;
+
+    private Map<String, Object> arguments;
+    private ByteBuffer encoded;
+    private byte[] frame;
+
+    @Setup
+    public void setUp() {
+        arguments = OrbBenchmarkEvents.eventStreamArguments(events);
+        encoded = StandardMessageCodec.INSTANCE.encodeMessage(arguments);
+        frame = OrbBenchmarkEvents.frame("eventStream", arguments);
+    }
+
+    @Benchmark
+    public ByteBuffer standardCodecEncode() {
+        return StandardMessageCodec.INSTANCE.encodeMessage(arguments);
+    }
+
+    @Benchmark
+    public Object standardCodecDecode() {
+        encoded.rewind();
+        return StandardMessageCodec.INSTANCE.decodeMessage(encoded);
+    }
+
+    @Benchmark
+    public byte[] msgPackEncode() {
+        return new OrbMsgPackWriter().write(arguments).toByteArray();
+    }
+
+    /**
+     * Decodes a frame the way the plugin does, events are only indexed.
+     */
+    @Benchmark
+    public Map<String, Object> msgPackIndex() {
+        OrbMsgPackReader reader = new OrbMsgPackReader(frame);
+        reader.seekMapValue(ARGUMENTS_KEY);
+        return reader.readEventArguments();
+    }
+
+    @Benchmark
+    public Object msgPackDecode() {
+        return new OrbMsgPackReader(frame).read();
+    }
+}
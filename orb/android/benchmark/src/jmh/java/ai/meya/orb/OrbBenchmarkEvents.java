@@ -0,0 +1,102 @@
+package ai.meya.orb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Realistic event streams for the benchmarks: a mix of say events, asks
+ * with quick replies and typing indicators from a user and a bot.
+ */
+final class OrbBenchmarkEvents {
+    private static final long START = 1650000000000L;
+
+    private OrbBenchmarkEvents() {}
+
+    /**
+     * @return {@code count} events, newest first like the Dart side sends
+     * them.
+     */
+    static List<Map<String, Object>> eventStream(int count) {
+        ArrayList<Map<String, Object>> eventStream = new ArrayList<>(count);
+        for (int i = count - 1; i >= 0; i--) {
+            eventStream.add(event(i));
+        }
+        return eventStream;
+    }
+
+    static Map<String, Object> event(int index) {
+        boolean fromUser = index % 2 == 0;
+        HashMap<String, Object> data = new HashMap<>();
+        data.put("thread_id", "t-0123456789abcdef");
+        data.put("user_id", fromUser ? "u-user" : "u-bot");
+        data.put("composer", composer());
+        data.put("context", new HashMap<String, Object>());
+
+        String type;
+        switch (index % 4) {
+            case 1:
+                type = "meya.text.event.ask";
+                data.put("text", "How would you rate your experience today?");
+                data.put("quick_replies", Arrays.<Object>asList(
+                        quickReply("Great"), quickReply("Okay"), quickReply("Bad")
+                ));
+                break;
+            case 3:
+                type = "meya.presence.event.typing.on";
+                break;
+            default:
+                type = "meya.text.event.say";
+                data.put("text", "Message number " + index + ", with enough text to look like a real chat message.");
+                data.put("markdown", Arrays.<Object>asList("linkify", "breaks"));
+                break;
+        }
+
+        HashMap<String, Object> event = new HashMap<>();
+        event.put("id", (START + index * 1000L) + "-" + index);
+        event.put("type", type);
+        event.put("data", data);
+        return event;
+    }
+
+    static Map<String, Object> eventStreamArguments(int count) {
+        HashMap<String, Object> arguments = new HashMap<>();
+        arguments.put("eventStream", eventStream(count));
+        return arguments;
+    }
+
+    static Map<String, Object> eventArguments(int count) {
+        List<Map<String, Object>> eventStream = eventStream(count);
+        HashMap<String, Object> arguments = new HashMap<>();
+        arguments.put("event", eventStream.get(0));
+        arguments.put("eventStream", eventStream);
+        return arguments;
+    }
+
+    /**
+     * @return a binary channel frame, as the Dart side encodes it.
+     */
+    static byte[] frame(String method, Map<String, Object> arguments) {
+        HashMap<String, Object> frame = new HashMap<>();
+        frame.put("method", method);
+        frame.put("arguments", arguments);
+        return new OrbMsgPackWriter().write(frame).toByteArray();
+    }
+
+    private static Map<String, Object> composer() {
+        HashMap<String, Object> composer = new HashMap<>();
+        composer.put("focus", "text");
+        composer.put("placeholder", null);
+        composer.put("visibility", "show");
+        return composer;
+    }
+
+    private static Map<String, Object> quickReply(String text) {
+        HashMap<String, Object> quickReply = new HashMap<>();
+        quickReply.put("text", text);
+        quickReply.put("button_id", "b-" + text.toLowerCase());
+        return quickReply;
+    }
+}
@@ -0,0 +1,96 @@
+package ai.meya.orb;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import ai.meya.orb.config.OrbComposer;
+import ai.meya.orb.config.OrbConfig;
+import ai.meya.orb.config.OrbHeader;
+import ai.meya.orb.config.OrbMediaUpload;
+import ai.meya.orb.config.OrbMenu;
+import ai.meya.orb.config.OrbSplash;
+import ai.meya.orb.config.OrbTheme;
+
+/**
+ * Serialization of the config and connection options into the maps sent
+ * over the method channel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OrbConfigBenchmark {
+    private OrbConfig config;
+    private OrbConnectionOptions options;
+
+    @Setup
+    public void setUp() {
+        config = config();
+        config.toMap();
+        options = new OrbConnectionOptions(
+                "https://grid.meya.ai",
+                "app-0123456789abcdef",
+                "integration.orb.mobile",
+                new HashMap<String, Object>()
+        );
+        options.userId = "u-0123456789abcdef";
+        options.threadId = "t-0123456789abcdef";
+        options.deviceId = "0123456789abcdef";
+    }
+
+    /**
+     * The first configure of a config, every section is encoded.
+     */
+    @Benchmark
+    public Map<String, Object> configToMap() {
+        return config().toMap();
+    }
+
+    /**
+     * Configuring the same config again, every section is encoded and
+     * compared with the one last sent.
+     */
+    @Benchmark
+    public Map<String, Object> configPatchUnchanged() {
+        return config.toPatch();
+    }
+
+    @Benchmark
+    public Map<String, Object> connectionOptionsToMap() {
+        return options.toMap();
+    }
+
+    private static OrbConfig config() {
+        HashMap<String, Object> progress = new HashMap<>();
+        progress.put("value", 40);
+        progress.put("showPercent", true);
+        HashMap<String, Object> title = new HashMap<>();
+        title.put("text", "Support");
+        return new OrbConfig(
+                new OrbTheme("#4989ea", 0.5),
+                new OrbComposer(
+                        "text", "Type here", "Type here", "show",
+                        "Type a message", "Type a message", "File", "Send",
+                        "Image", "Camera", "Gallery"
+                ),
+                new OrbHeader(
+                        new Object[]{},
+                        title,
+                        progress,
+                        new Object[]{"Start", "Details", "Done"},
+                        new Object[]{}
+                ),
+                new OrbMenu("Close", "Back"),
+                new OrbSplash("Loading..."),
+                new OrbMediaUpload(true, null, null)
+        );
+    }
+}
@@ -0,0 +1,71 @@
+package ai.meya.orb;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.flutter.plugin.common.MethodCall;
+
+/**
+ * Dispatch of the event callbacks by {@link OrbPlugin#onMethodCall}, from
+ * the decoded method call to the listeners, including the event stream
+ * extraction and, optionally, the event store update.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OrbPluginBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int events;
+
+    @Param({"false", "true"})
+    public boolean eventStore;
+
+    private OrbPlugin plugin;
+    private MethodCall eventStreamCall;
+    private MethodCall eventCall;
+    private OrbPlugin.GenericResult result;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        plugin = new OrbPlugin();
+        plugin.metrics.setEnabled(false);
+        plugin.addListener(plugin.eventStreamListeners, "eventStream", new Orb.EventStreamListener() {
+            @Override
+            public void onEventStream(List<Map<String, Object>> eventStream) {
+                blackhole.consume(eventStream);
+            }
+        }, false);
+        plugin.addListener(plugin.eventListeners, "event", new Orb.EventListener() {
+            @Override
+            public void onEvent(Map<String, Object> event, List<Map<String, Object>> eventStream) {
+                blackhole.consume(event);
+            }
+        }, false);
+        if (eventStore) plugin.setEventStore(new OrbEventStore());
+
+        eventStreamCall = new MethodCall("eventStream", OrbBenchmarkEvents.eventStreamArguments(events));
+        eventCall = new MethodCall("event", OrbBenchmarkEvents.eventArguments(events));
+        result = new OrbPlugin.GenericResult("benchmark");
+    }
+
+    @Benchmark
+    public void eventStream() {
+        plugin.onMethodCall(eventStreamCall, result);
+    }
+
+    @Benchmark
+    public void event() {
+        plugin.onMethodCall(eventCall, result);
+    }
+}
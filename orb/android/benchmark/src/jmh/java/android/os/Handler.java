@@ -0,0 +1,20 @@
+package android.os;
+
+/**
+ * Run time replacement of the framework's Handler for the JVM benchmarks,
+ * posted tasks run right away and delayed tasks are dropped.
+ */
+public class Handler {
+    public Handler(Looper looper) {}
+
+    public final boolean post(Runnable r) {
+        r.run();
+        return true;
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        return true;
+    }
+
+    public final void removeCallbacks(Runnable r) {}
+}
@@ -0,0 +1,19 @@
+package android.os;
+
+/**
+ * Run time replacement of the framework's Looper for the JVM benchmarks,
+ * every thread is treated as the main thread.
+ */
+public final class Looper {
+    private static final Looper MAIN = new Looper();
+
+    private Looper() {}
+
+    public static Looper getMainLooper() {
+        return MAIN;
+    }
+
+    public static Looper myLooper() {
+        return MAIN;
+    }
+}
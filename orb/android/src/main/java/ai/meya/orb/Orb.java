@@ -1,12 +1,18 @@
 package ai.meya.orb;
 
 import android.annotation.SuppressLint;
+import android.content.ContentResolver;
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
 import android.provider.Settings;
 import android.util.Log;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 import ai.meya.orb.config.OrbConfig;
 import androidx.annotation.NonNull;
@@ -20,11 +26,33 @@ import io.flutter.embedding.engine.plugins.PluginRegistry;
 public class Orb {
     private static final String TAG = "Orb";
 
+    /**
+     * Id of the pre-warmed engine in the {@link io.flutter.embedding.engine.FlutterEngineCache}.
+     */
+    public static final String ENGINE_ID = "orb";
+
     public String deviceId;
     public String deviceToken;
     public boolean ready = false;
 
     private ReadyListener _onReady;
+    private ConnectedListener _onConnected;
+    private DisconnectedListener _onDisconnected;
+    private FirstConnectListener _onFirstConnect;
+    private ReconnectListener _onReconnect;
+    private EventListener _onEvent;
+    private EventStreamListener _onEventStream;
+    private CloseUiListener _onCloseUi;
+    private OrbEventStore eventStore;
+    private OrbJournal journal;
+    private OrbOutbox outbox;
+    private OrbConfig config;
+    // Set for the instances of an OrbEngineGroup.
+    String integrationId;
+    // The options of the last connect, to resume suspended instances.
+    OrbConnectionOptions connectionOptions;
+    // Set once the engine of an OrbEngineGroup instance is destroyed.
+    volatile boolean released = false;
 
     public interface ReadyListener {
         void onReady();
@@ -58,11 +86,22 @@ public class Orb {
         void onCloseUi();
     }
 
+    public interface UploadProgressListener {
+        /**
+         * Called on the upload's thread after each chunk is sent.
+         *
+         * @param total the blob's length, or -1 if it isn't known.
+         */
+        void onProgress(long sent, long total);
+    }
+
     public FlutterEngine engine;
+    private final Context applicationContext;
 
     @SuppressLint("HardwareIds")
     public Orb(@NonNull Context context, @NonNull FlutterEngine engine) {
         this.engine = engine;
+        this.applicationContext = context.getApplicationContext();
         this.deviceId = Settings.Secure.getString(
                 context.getContentResolver(), Settings.Secure.ANDROID_ID
         );
@@ -88,37 +127,314 @@ public class Orb {
         this(context, new FlutterEngine(context));
     }
 
+    /**
+     * Creates, initializes and caches an Orb engine once the main thread is
+     * idle, so that {@link OrbActivity#createCachedEngineIntent} can open the
+     * chat without booting a new engine.
+     */
+    public static void prewarm(@NonNull Context context) {
+        OrbEngineCache.prewarm(context, null, null);
+    }
+
+    /**
+     * Pre-warms the engine, then configures it and connects as soon as it is
+     * ready, so the chat opens with the connection already established.
+     */
+    public static void prewarm(
+            @NonNull Context context,
+            @Nullable OrbConfig config,
+            @Nullable OrbConnectionOptions options
+    ) {
+        OrbEngineCache.prewarm(context, config, options);
+    }
+
+    /**
+     * @return the Orb of the pre-warmed engine, or null if it hasn't been
+     * created yet or was released.
+     */
+    @Nullable
+    public static Orb getPrewarmed() {
+        return OrbEngineCache.get();
+    }
+
+    /**
+     * Destroys the pre-warmed engine and removes it from the cache.
+     */
+    public static void releasePrewarmed() {
+        OrbEngineCache.release();
+    }
+
+    /**
+     * Returns the Orb instance of an integration, creating it if needed.
+     * Instances of different integrations each have their own engine,
+     * listeners and connection, but the engines are spawned from a shared
+     * {@link io.flutter.embedding.engine.FlutterEngineGroup}, so they share
+     * the Dart VM and code. Open one with
+     * {@link OrbActivity#createInstanceIntent}.
+     *
+     * Only the most recently used instances stay connected, see
+     * {@link #setMaxActiveInstances(int)}. Must be called on the main thread.
+     *
+     * When the system asks to trim memory, suspended instances that no
+     * activity is showing are released: their engine is destroyed along with
+     * their listeners, and their commands fail with a "released"
+     * {@link OrbException}. Check {@link #isReleased()} before reusing an
+     * instance kept from an earlier call, and get a new one, adding its
+     * listeners again, if it was released.
+     */
+    @NonNull
+    public static Orb getInstance(@NonNull Context context, @NonNull String integrationId) {
+        return OrbEngineGroup.get(context, integrationId);
+    }
+
+    /**
+     * Sets how many instances stay connected (2 by default). The least
+     * recently used instances beyond that are disconnected, unless an
+     * activity is showing them, and reconnect when they are used again.
+     */
+    public static void setMaxActiveInstances(int max) {
+        OrbEngineGroup.setMaxActive(max);
+    }
+
+    /**
+     * Destroys the instance of an integration.
+     */
+    public static void releaseInstance(@NonNull String integrationId) {
+        OrbEngineGroup.release(integrationId);
+    }
+
+    /**
+     * @return whether this instance was released, either with
+     * {@link #releaseInstance(String)} or to free memory, after which it
+     * can't be used anymore.
+     */
+    public boolean isReleased() {
+        return released;
+    }
+
+    @Nullable
+    public String getIntegrationId() {
+        return integrationId;
+    }
+
     public void initialize() {
+        OrbPlugin plugin = getPlugin(engine);
+        if (plugin != null) plugin.onInitialize();
+        // Engines spawned from an engine group are already running.
+        if (engine.getDartExecutor().isExecutingDart()) {
+            return;
+        }
         engine.getDartExecutor().executeDartEntrypoint(
                 DartExecutor.DartEntrypoint.createDefault()
         );
     }
     
-    public void configure(OrbConfig config) {
+    /**
+     * Can be called before Orb is ready, the config is then sent as soon as
+     * the runtime is ready. The same goes for all other commands.
+     *
+     * Commands return a future that succeeds once the Dart side has applied
+     * them, see {@link OrbFuture} for timeouts and cancellation.
+     */
+    public OrbFuture<Void> configure(OrbConfig config) {
+        this.config = config;
         OrbPlugin plugin = getPlugin(engine);
-        if (plugin != null) plugin.configure(config);
+        return plugin != null ? plugin.configure(config) : notRegistered();
     }
 
-    public void connect(OrbConnectionOptions options) {
+    public OrbFuture<Void> connect(OrbConnectionOptions options) {
         if (options.deviceId == null) options.deviceId = deviceId;
         if (options.deviceToken == null) options.deviceToken = deviceToken;
+        if (options.integrationId == null) options.integrationId = integrationId;
+        connectionOptions = options;
+        if (integrationId != null) OrbEngineGroup.onConnect(engine);
         OrbPlugin plugin = getPlugin(engine);
-        if (plugin != null) plugin.connect(options);
+        return plugin != null ? plugin.connect(options) : notRegistered();
     }
 
-    public void disconnect() {
-        OrbPlugin plugin = getPlugin(engine);
-        if (plugin != null) plugin.disconnect(false);
+    public OrbFuture<Void> disconnect() {
+        return disconnect(false);
     }
     
-    public void disconnect(boolean logOut) {
+    public OrbFuture<Void> disconnect(boolean logOut) {
+        connectionOptions = null;
+        OrbPlugin plugin = getPlugin(engine);
+        OrbFuture<Void> future = plugin != null ? plugin.disconnect(logOut) : notRegistered();
+        // Logging out starts a new thread on the next connect.
+        if (logOut && eventStore != null) eventStore.clear();
+        if (logOut) OrbCompactMap.clearTables();
+        if (logOut && journal != null) journal.clear();
+        if (logOut && outbox != null) {
+            outbox.clear();
+            if (plugin != null) plugin.cancelOutboxFutures();
+        }
+        return future;
+    }
+
+    /**
+     * Publishes an event. If the outbox is enabled, the event is saved and
+     * published once Orb is connected, otherwise it is sent right away and
+     * lost if Orb isn't connected.
+     */
+    public OrbFuture<Void> publishEvent(Map<String, Object> event) {
         OrbPlugin plugin = getPlugin(engine);
-        if (plugin != null) plugin.disconnect(logOut);
+        if (plugin == null) return notRegistered();
+        if (outbox != null) {
+            return plugin.publishEventsDurably(Collections.singletonList(event));
+        } else {
+            return plugin.publishEvent(event);
+        }
     }
 
-    public void publishEvent(Map<String, Object> event) {
+    /**
+     * Publishes several events with a single platform channel call. With the
+     * outbox enabled, they are saved together and published along with the
+     * rest of the outbox, in batches of up to 20 events per call.
+     */
+    public OrbFuture<Void> publishEvents(List<Map<String, Object>> events) {
         OrbPlugin plugin = getPlugin(engine);
-        if (plugin != null) plugin.publishEvent(event);
+        if (plugin == null) return notRegistered();
+        if (outbox != null) {
+            return plugin.publishEventsDurably(events);
+        } else {
+            return plugin.publishEvents(events);
+        }
+    }
+
+    public OrbFuture<String> uploadBlob(@NonNull Uri contentUri) {
+        return uploadBlob(contentUri, null);
+    }
+
+    /**
+     * Uploads a file, e.g. one picked with {@code ACTION_GET_CONTENT}, to
+     * the blob storage of the connected app. The file is streamed from the
+     * content resolver, so large videos and documents don't need to fit in
+     * memory, and the upload is retried on network errors. Images are
+     * downscaled and re-encoded first, per the config's
+     * {@link ai.meya.orb.config.OrbMediaUpload} image settings.
+     *
+     * @return a future with the blob's URL, to publish in an image or file
+     * event. Cancelling it aborts the upload.
+     */
+    public OrbFuture<String> uploadBlob(@NonNull Uri contentUri, @Nullable UploadProgressListener listener) {
+        OrbConnectionOptions options = connectionOptions;
+        if (options == null) {
+            return OrbFuture.failed(new OrbException("disconnected", "Orb is not connected", null));
+        }
+        ContentResolver resolver = applicationContext.getContentResolver();
+        OrbImageCompressor compressor = OrbImageCompressor.forConfig(config);
+        Bitmap.CompressFormat format = OrbImageCompressor.getFormat(resolver.getType(contentUri));
+        if (compressor != null && format != null) {
+            return compressor.upload(resolver, contentUri, format, applicationContext.getCacheDir(), options, listener);
+        }
+        return OrbBlobUpload.start(resolver, contentUri, options, listener);
+    }
+
+    /**
+     * Gets a page of the event stream, newest first, without marshalling the
+     * whole stream like the event stream listeners do, e.g. to show the
+     * latest messages in a native inbox.
+     *
+     * @param cursor null for the newest events, or the cursor of the
+     *               previous page for the events before it.
+     * @return a future with the page, which fails with an
+     * {@link OrbException} if Orb has no connection or the cursor is unknown.
+     */
+    public OrbFuture<OrbEventPage> getEvents(@Nullable String cursor, int limit) {
+        OrbPlugin plugin = getPlugin(engine);
+        return plugin != null ? plugin.getEvents(cursor, limit) : OrbFuture.<OrbEventPage>failed(notRegisteredError());
+    }
+
+    /**
+     * Gets a page of the events older than the given event, newest first.
+     */
+    public OrbFuture<OrbEventPage> getEventsBefore(@NonNull String eventId, int limit) {
+        return getEvents(eventId, limit);
+    }
+
+    /**
+     * Merges events published within {@code window} milliseconds of the
+     * first one into a single platform channel call. Set to 0 (the default)
+     * to publish every event right away.
+     */
+    public void setPublishCoalescingWindow(long window) {
+        OrbPlugin plugin = getPlugin(engine);
+        if (plugin != null) plugin.setPublishCoalescingWindow(window);
+    }
+
+    /**
+     * Returns the native store of the thread's events, creating it on first
+     * use. The store is kept up to date from the event stream callbacks.
+     */
+    public OrbEventStore getEventStore() {
+        if (eventStore != null) {
+            return eventStore;
+        }
+        eventStore = new OrbEventStore();
+        OrbPlugin plugin = getPlugin(engine);
+        if (plugin != null) plugin.setEventStore(eventStore);
+        return eventStore;
+    }
+
+    /**
+     * Compacts superseded ephemeral events, e.g. typing indicators, out of
+     * the event streams passed to the listeners. See
+     * {@link OrbEventCompaction}.
+     */
+    public void setEventCompaction(@Nullable OrbEventCompaction compaction) {
+        OrbPlugin plugin = getPlugin(engine);
+        if (plugin != null) plugin.setEventCompaction(compaction);
+    }
+
+    /**
+     * Starts journaling the thread's events to disk, so that they can be
+     * read with {@link OrbJournal#readLast(int)} the next time the app
+     * starts, before Orb has connected.
+     */
+    public OrbJournal enableJournal(@NonNull Context context) {
+        if (journal != null) {
+            return journal;
+        }
+        journal = new OrbJournal(context);
+        OrbPlugin plugin = getPlugin(engine);
+        if (plugin != null) plugin.setJournal(journal);
+        return journal;
+    }
+
+    /**
+     * @return the bridge's latency and size metrics, or null if the plugin
+     * isn't registered.
+     */
+    @Nullable
+    public OrbMetrics getMetrics() {
+        OrbPlugin plugin = getPlugin(engine);
+        return plugin != null ? plugin.metrics : null;
+    }
+
+    @Nullable
+    public OrbJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Saves published events to a durable outbox until they've been sent
+     * on a connected socket, including events published while offline or
+     * before Orb is ready. Events left over from a previous run are sent on
+     * the next connect.
+     */
+    public OrbOutbox enableOutbox(@NonNull Context context) {
+        if (outbox != null) {
+            return outbox;
+        }
+        outbox = new OrbOutbox(context);
+        OrbPlugin plugin = getPlugin(engine);
+        if (plugin != null) plugin.setOutbox(outbox);
+        return outbox;
+    }
+
+    @Nullable
+    public OrbOutbox getOutbox() {
+        return outbox;
     }
 
     public void setOnReadyListener(Orb.ReadyListener listener) {
@@ -127,63 +443,262 @@ public class Orb {
     }
 
     public void setOnConnectedListener(Orb.ConnectedListener listener) {
+        if (_onConnected != null) removeConnectedListener(_onConnected);
+        _onConnected = listener;
+        if (listener != null) addConnectedListener(listener);
+    }
+
+    public void addConnectedListener(Orb.ConnectedListener listener) {
+        OrbPlugin plugin = getPlugin(engine);
+        if (plugin == null) {
+            return;
+        }
+        plugin.addListener(plugin.connectedListeners, null, listener, false);
+    }
+
+    public void removeConnectedListener(Orb.ConnectedListener listener) {
         OrbPlugin plugin = getPlugin(engine);
         if (plugin == null) {
             return;
         }
-        plugin.connectedListener = listener;
+        plugin.removeListener(plugin.connectedListeners, null, listener);
     }
 
     public void setOnDisconnectedListener(Orb.DisconnectedListener listener) {
+        if (_onDisconnected != null) removeDisconnectedListener(_onDisconnected);
+        _onDisconnected = listener;
+        if (listener != null) addDisconnectedListener(listener);
+    }
+
+    public void addDisconnectedListener(Orb.DisconnectedListener listener) {
         OrbPlugin plugin = getPlugin(engine);
         if (plugin == null) {
             return;
         }
-        plugin.disconnectedListener = listener;
+        plugin.addListener(plugin.disconnectedListeners, null, listener, false);
+    }
+
+    public void removeDisconnectedListener(Orb.DisconnectedListener listener) {
+        OrbPlugin plugin = getPlugin(engine);
+        if (plugin == null) {
+            return;
+        }
+        plugin.removeListener(plugin.disconnectedListeners, null, listener);
     }
 
     public void setOnFirstConnectListener(Orb.FirstConnectListener listener) {
+        if (_onFirstConnect != null) removeFirstConnectListener(_onFirstConnect);
+        _onFirstConnect = listener;
+        if (listener != null) addFirstConnectListener(listener);
+    }
+
+    public void addFirstConnectListener(Orb.FirstConnectListener listener) {
         OrbPlugin plugin = getPlugin(engine);
         if (plugin == null) {
             return;
         }
-        plugin.subscribe("firstConnect");
-        plugin.firstConnectListener = listener;
+        plugin.addListener(plugin.firstConnectListeners, "firstConnect", listener, false);
+    }
+
+    public void removeFirstConnectListener(Orb.FirstConnectListener listener) {
+        OrbPlugin plugin = getPlugin(engine);
+        if (plugin == null) {
+            return;
+        }
+        plugin.removeListener(plugin.firstConnectListeners, "firstConnect", listener);
     }
 
     public void setOnReconnectListener(Orb.ReconnectListener listener) {
+        if (_onReconnect != null) removeReconnectListener(_onReconnect);
+        _onReconnect = listener;
+        if (listener != null) addReconnectListener(listener);
+    }
+
+    public void addReconnectListener(Orb.ReconnectListener listener) {
         OrbPlugin plugin = getPlugin(engine);
         if (plugin == null) {
             return;
         }
-        plugin.subscribe("reconnect");
-        plugin.reconnectListener = listener;
+        plugin.addListener(plugin.reconnectListeners, "reconnect", listener, false);
+    }
+
+    public void removeReconnectListener(Orb.ReconnectListener listener) {
+        OrbPlugin plugin = getPlugin(engine);
+        if (plugin == null) {
+            return;
+        }
+        plugin.removeListener(plugin.reconnectListeners, "reconnect", listener);
     }
 
     public void setOnEventListener(Orb.EventListener listener) {
+        setOnEventListener(listener, false);
+    }
+
+    /**
+     * @param delta only send new or changed events over the platform channel
+     *              and rebuild the event stream natively.
+     */
+    public void setOnEventListener(Orb.EventListener listener, boolean delta) {
+        setOnEventListener(listener, delta, null);
+    }
+
+    /**
+     * @param types only receive events of these types, e.g.
+     *              "meya.text.event.say". Other events are dropped on the
+     *              Dart side and never cross the platform channel.
+     */
+    public void setOnEventListener(Orb.EventListener listener, @Nullable Set<String> types) {
+        setOnEventListener(listener, false, types);
+    }
+
+    /**
+     * @param delta only send new or changed events over the platform channel
+     *              and rebuild the event stream natively.
+     * @param types only receive events of these types, null for all of them.
+     *              The event stream only holds the events of the types that
+     *              the event listeners want.
+     */
+    public void setOnEventListener(Orb.EventListener listener, boolean delta, @Nullable Set<String> types) {
+        if (_onEvent != null) removeEventListener(_onEvent);
+        _onEvent = listener;
+        if (listener != null) addEventListener(listener, delta, types);
+    }
+
+    public void addEventListener(Orb.EventListener listener) {
+        addEventListener(listener, false);
+    }
+
+    /**
+     * @param delta only send new or changed events over the platform channel
+     *              and rebuild the event stream natively.
+     */
+    public void addEventListener(Orb.EventListener listener, boolean delta) {
+        addEventListener(listener, delta, null);
+    }
+
+    /**
+     * @param delta only send new or changed events over the platform channel
+     *              and rebuild the event stream natively.
+     * @param types only receive events of these types, null for all of them.
+     *              The event stream only holds the events of the types that
+     *              the event listeners want.
+     */
+    public void addEventListener(Orb.EventListener listener, boolean delta, @Nullable Set<String> types) {
         OrbPlugin plugin = getPlugin(engine);
         if (plugin == null) {
             return;
         }
-        plugin.subscribe("event");
-        plugin.eventListener = listener;
+        plugin.addListener(plugin.eventListeners, "event", listener, delta, types);
+    }
+
+    public void removeEventListener(Orb.EventListener listener) {
+        OrbPlugin plugin = getPlugin(engine);
+        if (plugin == null) {
+            return;
+        }
+        plugin.removeListener(plugin.eventListeners, "event", listener);
     }
 
     public void setOnEventStreamListener(Orb.EventStreamListener listener) {
+        setOnEventStreamListener(listener, false);
+    }
+
+    /**
+     * @param delta only send new or changed events over the platform channel
+     *              and rebuild the event stream natively.
+     */
+    public void setOnEventStreamListener(Orb.EventStreamListener listener, boolean delta) {
+        if (_onEventStream != null) removeEventStreamListener(_onEventStream);
+        _onEventStream = listener;
+        if (listener != null) addEventStreamListener(listener, delta);
+    }
+
+    public void addEventStreamListener(Orb.EventStreamListener listener) {
+        addEventStreamListener(listener, false);
+    }
+
+    /**
+     * @param delta only send new or changed events over the platform channel
+     *              and rebuild the event stream natively.
+     */
+    public void addEventStreamListener(Orb.EventStreamListener listener, boolean delta) {
+        OrbPlugin plugin = getPlugin(engine);
+        if (plugin == null) {
+            return;
+        }
+        plugin.addListener(plugin.eventStreamListeners, "eventStream", listener, delta);
+    }
+
+    public void removeEventStreamListener(Orb.EventStreamListener listener) {
         OrbPlugin plugin = getPlugin(engine);
         if (plugin == null) {
             return;
         }
-        plugin.subscribe("eventStream");
-        plugin.eventStreamListener = listener;
+        plugin.removeListener(plugin.eventStreamListeners, "eventStream", listener);
     }
 
     public void setOnCloseUiListener(Orb.CloseUiListener listener) {
+        if (_onCloseUi != null) removeCloseUiListener(_onCloseUi);
+        _onCloseUi = listener;
+        if (listener != null) addCloseUiListener(listener);
+    }
+
+    public void addCloseUiListener(Orb.CloseUiListener listener) {
+        OrbPlugin plugin = getPlugin(engine);
+        if (plugin == null) {
+            return;
+        }
+        plugin.addListener(plugin.closeUiListeners, null, listener, false);
+    }
+
+    public void removeCloseUiListener(Orb.CloseUiListener listener) {
+        OrbPlugin plugin = getPlugin(engine);
+        if (plugin == null) {
+            return;
+        }
+        plugin.removeListener(plugin.closeUiListeners, null, listener);
+    }
+
+    /**
+     * Dispatches all listener callbacks (except the ready listener) to the
+     * given executor instead of the platform thread. Callbacks of each type
+     * are still delivered one at a time and in order.
+     */
+    public void setListenerExecutor(@Nullable Executor executor) {
+        OrbPlugin plugin = getPlugin(engine);
+        if (plugin == null) {
+            return;
+        }
+        plugin.setListenerExecutor(executor);
+    }
+
+    /**
+     * Dispatches the callbacks of one listener type to the given executor.
+     *
+     * @param callback one of "connected", "disconnected", "firstConnect",
+     *                 "reconnect", "event", "eventStream" or "closeUi".
+     */
+    public void setListenerExecutor(@NonNull String callback, @Nullable Executor executor) {
         OrbPlugin plugin = getPlugin(engine);
         if (plugin == null) {
             return;
         }
-        plugin.closeUiListener = listener;
+        plugin.setListenerExecutor(callback, executor);
+    }
+
+    private OrbFuture<Void> notRegistered() {
+        return OrbFuture.failed(notRegisteredError());
+    }
+
+    private OrbException notRegisteredError() {
+        if (released) {
+            return new OrbException(
+                    "released",
+                    "This Orb instance was released, get a new one with Orb.getInstance",
+                    null
+            );
+        }
+        return new OrbException("notRegistered", "Could not get OrbPlugin", null);
     }
 
     @Nullable
@@ -10,6 +10,8 @@ import io.flutter.embedding.android.FlutterActivity;
 
 public class OrbActivity extends FlutterActivity {
     public Orb orb;
+    private boolean prewarmed = false;
+    private boolean grouped = false;
 
     @NonNull
     public static Intent createDefaultIntent(
@@ -18,14 +20,61 @@ public class OrbActivity extends FlutterActivity {
         return new NewEngineIntentBuilder(activityClass).build(launchContext);
     }
 
+    /**
+     * Creates an intent that reuses the engine created by {@link Orb#prewarm}.
+     * Falls back to a new engine if nothing was pre-warmed.
+     */
+    @NonNull
+    public static Intent createCachedEngineIntent(
+            @NonNull Context launchContext, @NonNull Class<? extends OrbActivity> activityClass
+    ) {
+        if (Orb.getPrewarmed() == null) {
+            return createDefaultIntent(launchContext, activityClass);
+        }
+        return new CachedEngineIntentBuilder(activityClass, Orb.ENGINE_ID).build(launchContext);
+    }
+
+    /**
+     * Creates an intent that shows the Orb instance of an integration, see
+     * {@link Orb#getInstance(Context, String)}.
+     */
+    @NonNull
+    public static Intent createInstanceIntent(
+            @NonNull Context launchContext,
+            @NonNull Class<? extends OrbActivity> activityClass,
+            @NonNull String integrationId
+    ) {
+        Orb.getInstance(launchContext, integrationId);
+        return new CachedEngineIntentBuilder(activityClass, OrbEngineGroup.engineId(integrationId))
+                .build(launchContext);
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        if (getFlutterEngine() != null) {
+        if (OrbEngineCache.isPrewarmed(getFlutterEngine())) {
+            orb = Orb.getPrewarmed();
+            prewarmed = true;
+            OrbEngineCache.attach();
+        } else if (OrbEngineGroup.isGrouped(getFlutterEngine())) {
+            orb = OrbEngineGroup.attach(getFlutterEngine());
+            grouped = true;
+        } else if (getFlutterEngine() != null) {
             orb = new Orb(getContext(), getFlutterEngine());
         } else {
             orb = new Orb(getContext());
         }
     }
+
+    @Override
+    protected void onDestroy() {
+        if (prewarmed) {
+            OrbEngineCache.detach();
+        }
+        if (grouped) {
+            OrbEngineGroup.detach(orb.engine);
+        }
+        super.onDestroy();
+    }
 }
@@ -0,0 +1,299 @@
+package ai.meya.orb;
+
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+
+/**
+ * Streams a blob to the gateway's blob endpoint, {@link #CHUNK_SIZE} bytes
+ * at a time, so that only one chunk of it is ever in memory. The Dart
+ * {@code postBlob} reads the whole file first, which runs low-end devices
+ * out of memory for large videos and PDFs.
+ *
+ * The endpoint only accepts whole blobs, so a retry, after a network error
+ * or a 5xx, starts the upload over from a fresh stream.
+ */
+final class OrbBlobUpload implements Runnable {
+    private static final String TAG = "OrbBlobUpload";
+    static final int CHUNK_SIZE = 64 * 1024;
+    static final int MAX_ATTEMPTS = 4;
+    private static final MediaType DEFAULT_CONTENT_TYPE = MediaType.parse("application/octet-stream");
+
+    // The body can only be written once, so OkHttp must not retry on its own.
+    private static final OkHttpClient defaultClient = new OkHttpClient.Builder()
+            .retryOnConnectionFailure(false)
+            .build();
+    private static final Executor uploads = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    // Shortened in tests.
+    static long retryBaseDelay = 1000;
+
+    interface Source {
+        InputStream open() throws IOException;
+
+        /**
+         * @return the length of the blob in bytes, or -1 if it isn't known.
+         */
+        long length();
+    }
+
+    private static class UriSource implements Source {
+        private final ContentResolver resolver;
+        private final Uri uri;
+
+        UriSource(ContentResolver resolver, Uri uri) {
+            this.resolver = resolver;
+            this.uri = uri;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            InputStream input = resolver.openInputStream(uri);
+            if (input == null) {
+                throw new FileNotFoundException("Could not open '" + uri + "'");
+            }
+            return input;
+        }
+
+        @Override
+        public long length() {
+            AssetFileDescriptor descriptor = null;
+            try {
+                descriptor = resolver.openAssetFileDescriptor(uri, "r");
+                return descriptor != null ? descriptor.getLength() : AssetFileDescriptor.UNKNOWN_LENGTH;
+            } catch (FileNotFoundException | SecurityException e) {
+                return AssetFileDescriptor.UNKNOWN_LENGTH;
+            } finally {
+                if (descriptor != null) {
+                    try {
+                        descriptor.close();
+                    } catch (IOException ignored) {}
+                }
+            }
+        }
+    }
+
+    private static class FileSource implements Source {
+        private final File file;
+
+        FileSource(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            return new FileInputStream(file);
+        }
+
+        @Override
+        public long length() {
+            return file.length();
+        }
+    }
+
+    final OrbFuture<String> future = new OrbFuture<>();
+    private final OkHttpClient client;
+    private final String blobUrl;
+    private final Source source;
+    private final MediaType contentType;
+    private final Orb.UploadProgressListener listener;
+    private volatile Call call;
+
+    OrbBlobUpload(
+            @NonNull OkHttpClient client,
+            @NonNull String blobUrl,
+            @NonNull Source source,
+            @Nullable String mimeType,
+            @Nullable Orb.UploadProgressListener listener
+    ) {
+        this.client = client;
+        this.blobUrl = blobUrl;
+        this.source = source;
+        MediaType contentType = mimeType != null ? MediaType.parse(mimeType) : null;
+        this.contentType = contentType != null ? contentType : DEFAULT_CONTENT_TYPE;
+        this.listener = listener;
+    }
+
+    /**
+     * Uploads the content behind {@code uri} to the blob storage of the
+     * connection's app.
+     *
+     * @return a future with the blob's URL. Cancelling it aborts the upload.
+     */
+    static OrbFuture<String> start(
+            @NonNull ContentResolver resolver,
+            @NonNull Uri uri,
+            @NonNull OrbConnectionOptions options,
+            @Nullable Orb.UploadProgressListener listener
+    ) {
+        return start(new OrbBlobUpload(
+                defaultClient,
+                getBlobUrl(options),
+                new UriSource(resolver, uri),
+                resolver.getType(uri),
+                listener
+        ));
+    }
+
+    static OrbFuture<String> start(
+            @NonNull File file,
+            @NonNull String mimeType,
+            @NonNull OrbConnectionOptions options,
+            @Nullable Orb.UploadProgressListener listener
+    ) {
+        return start(new OrbBlobUpload(defaultClient, getBlobUrl(options), new FileSource(file), mimeType, listener));
+    }
+
+    static OrbFuture<String> start(final OrbBlobUpload upload) {
+        upload.future.addCallback(new OrbFuture.Callback<String>() {
+            @Override
+            public void onSuccess(@Nullable String result) {}
+
+            @Override
+            public void onFailure(@NonNull Throwable error) {
+                if (upload.future.isCancelled()) upload.cancelCall();
+            }
+        });
+        uploads.execute(upload);
+        return upload.future;
+    }
+
+    /**
+     * The same URL as the Dart {@code postBlob} posts to.
+     */
+    static String getBlobUrl(OrbConnectionOptions options) {
+        return options.gridUrl + "/gateway/v2/blob/" + options.appId + "/blob";
+    }
+
+    @Override
+    public void run() {
+        long length = source.length();
+        int attempts = 0;
+        while (!future.isDone()) {
+            attempts++;
+            OrbException error;
+            InputStream input;
+            try {
+                input = source.open();
+            } catch (IOException | SecurityException e) {
+                future.fail(uploadError(e.getMessage(), null, e));
+                return;
+            }
+            try {
+                Response response = send(input, length);
+                try {
+                    int code = response.code();
+                    if (code == 201) {
+                        String blobId = response.body().string().trim();
+                        future.complete(blobUrl + "/" + blobId);
+                        return;
+                    }
+                    error = uploadError("HTTP " + code, code, null);
+                    if (code < 500 && code != 408 && code != 429) {
+                        future.fail(error);
+                        return;
+                    }
+                } finally {
+                    response.close();
+                }
+            } catch (IOException e) {
+                error = uploadError(e.getMessage(), null, e);
+            } finally {
+                try {
+                    input.close();
+                } catch (IOException ignored) {}
+            }
+            if (attempts >= MAX_ATTEMPTS) {
+                future.fail(error);
+                return;
+            }
+            long delay = retryBaseDelay << (attempts - 1);
+            Log.d(TAG, "Upload failed (" + error.getMessage() + "), retrying in " + delay + "ms");
+            try {
+                // Returns early if the upload is cancelled meanwhile.
+                future.get(delay, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Time to retry.
+            } catch (ExecutionException | CancellationException e) {
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.fail(error);
+                return;
+            }
+        }
+    }
+
+    private Response send(final InputStream input, final long length) throws IOException {
+        RequestBody body = new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return contentType;
+            }
+
+            @Override
+            public long contentLength() {
+                // Unknown lengths are sent with chunked transfer encoding.
+                return length;
+            }
+
+            @Override
+            public void writeTo(@NonNull BufferedSink sink) throws IOException {
+                byte[] chunk = new byte[CHUNK_SIZE];
+                long sent = 0;
+                int read;
+                while ((read = input.read(chunk)) != -1) {
+                    sink.write(chunk, 0, read);
+                    sent += read;
+                    if (listener != null) listener.onProgress(sent, length);
+                }
+            }
+        };
+        Call call = client.newCall(new Request.Builder().url(blobUrl).post(body).build());
+        this.call = call;
+        // The upload may have been cancelled before the call existed.
+        if (future.isDone()) call.cancel();
+        return call.execute();
+    }
+
+    private void cancelCall() {
+        Call call = this.call;
+        if (call != null) call.cancel();
+    }
+
+    private static OrbException uploadError(String message, @Nullable Object details, @Nullable Throwable cause) {
+        OrbException error = new OrbException("uploadFailed", message, details);
+        if (cause != null) error.initCause(cause);
+        return error;
+    }
+}
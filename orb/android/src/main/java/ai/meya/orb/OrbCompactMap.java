@@ -0,0 +1,233 @@
+package ai.meya.orb;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Immutable, compact copy of an event, for host apps that keep the event
+ * streams they receive.
+ *
+ * A decoded event is a tree of HashMaps, each with its own table, entry
+ * objects and copies of the same key strings. A compact map only holds an
+ * array of its values: its keys are an array shared by every map with the
+ * same keys in the same order, e.g. the data of every say event, looked up
+ * in a process-wide table. Event types and short {@code *_id} values, e.g.
+ * user and thread ids, are deduplicated the same way. Other strings, e.g.
+ * message texts, and event ids are unique, so they are left as they are. Nested maps and lists are compacted as well, so a
+ * retained event takes several times less heap than the decoded one, see
+ * the benchmark module's {@code EventHeapBenchmark}.
+ *
+ * Lookups scan the keys, which is as fast as hashing for the few keys an
+ * event has.
+ */
+public final class OrbCompactMap extends AbstractMap<String, Object> {
+    static final int MAX_SHAPES = 1024;
+    static final int MAX_STRINGS = 4096;
+    static final int MAX_STRING_LENGTH = 64;
+
+    // Both tables stop growing once full, which bounds their size if the
+    // keys or values turn out not to repeat, and are cleared when the user
+    // logs out, so that their ids don't outlive them.
+    private static final HashMap<List<String>, String[]> shapes = new HashMap<>();
+    private static final HashMap<String, String> strings = new HashMap<>();
+    private static final OrbCompactMap EMPTY = new OrbCompactMap(new String[0], new Object[0]);
+
+    private final String[] keys;
+    private final Object[] values;
+
+    private OrbCompactMap(String[] keys, Object[] values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    /**
+     * @return a compact copy of the event, or the event itself if it
+     * already is one.
+     */
+    @NonNull
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> of(@NonNull Map<String, Object> event) {
+        return (Map<String, Object>) compact(null, event);
+    }
+
+    /**
+     * @return an immutable copy of the event stream with every event
+     * compacted.
+     */
+    @NonNull
+    @SuppressWarnings("unchecked")
+    public static List<Map<String, Object>> listOf(@NonNull List<Map<String, Object>> eventStream) {
+        return (List<Map<String, Object>>) compact(null, eventStream);
+    }
+
+    @Nullable
+    private static Object compact(@Nullable String key, @Nullable Object value) {
+        if (value instanceof String) {
+            String string = (String) value;
+            return isInterned(key) && string.length() <= MAX_STRING_LENGTH ? intern(string) : string;
+        } else if (value instanceof OrbCompactMap || value instanceof CompactList) {
+            return value;
+        } else if (value instanceof Map) {
+            return compactMap((Map<?, ?>) value);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            Object[] elements = new Object[list.size()];
+            int i = 0;
+            for (Object element : list) {
+                elements[i++] = compact(key, element);
+            }
+            return new CompactList(elements);
+        }
+        return value;
+    }
+
+    private static boolean isInterned(@Nullable String key) {
+        return key != null && (key.equals("type") || key.endsWith("_id"));
+    }
+
+    private static Object compactMap(Map<?, ?> map) {
+        if (map.isEmpty()) {
+            return EMPTY;
+        }
+        String[] keys = new String[map.size()];
+        Object[] values = new Object[keys.length];
+        int i = 0;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (!(entry.getKey() instanceof String)) {
+                // Not an event map, left as it is.
+                return map;
+            }
+            keys[i] = (String) entry.getKey();
+            values[i] = compact(keys[i], entry.getValue());
+            i++;
+        }
+        return new OrbCompactMap(internKeys(keys), values);
+    }
+
+    /**
+     * Empties the intern tables, e.g. on logout. Compact maps made before
+     * keep working, they just no longer share keys and values with the ones
+     * made after.
+     */
+    static synchronized void clearTables() {
+        shapes.clear();
+        strings.clear();
+    }
+
+    private static synchronized String[] internKeys(String[] keys) {
+        List<String> shape = Arrays.asList(keys);
+        String[] interned = shapes.get(shape);
+        if (interned != null) {
+            return interned;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = intern(keys[i]);
+        }
+        if (shapes.size() < MAX_SHAPES) shapes.put(shape, keys);
+        return keys;
+    }
+
+    private static synchronized String intern(String string) {
+        String interned = strings.get(string);
+        if (interned != null) {
+            return interned;
+        }
+        if (strings.size() < MAX_STRINGS) strings.put(string, string);
+        return string;
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int index = indexOf(key);
+        return index >= 0 ? values[index] : null;
+    }
+
+    private int indexOf(Object key) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == key) return i;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key)) return i;
+        }
+        return -1;
+    }
+
+    @NonNull
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @NonNull
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new Iterator<Entry<String, Object>>() {
+                    private int index = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < keys.length;
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        if (index >= keys.length) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<String, Object> entry = new SimpleImmutableEntry<>(keys[index], values[index]);
+                        index++;
+                        return entry;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+
+    private static final class CompactList extends AbstractList<Object> implements RandomAccess {
+        private final Object[] elements;
+
+        CompactList(Object[] elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        public Object get(int index) {
+            return elements[index];
+        }
+
+        @Override
+        public int size() {
+            return elements.length;
+        }
+    }
+}
@@ -0,0 +1,661 @@
+package ai.meya.orb;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+
+/**
+ * Native connection to the Orb gateway, for flows that only send and
+ * receive events (badge counts, background sync, server-driven triggers)
+ * and don't need to boot a Flutter engine.
+ *
+ * It speaks the same websocket protocol as the Dart OrbConnection: msgpack
+ * entries, a heartbeat while the device is resumed, and reconnects with an
+ * exponential backoff. Its listeners are the same as {@link Orb}'s, and are
+ * called on the main thread unless {@link #setListenerExecutor} says
+ * otherwise.
+ *
+ * Unlike the chat UI, it doesn't publish a page open event on first connect,
+ * and it doesn't keep the session token across app restarts: the UI keeps
+ * it in secure storage, so pass it in the options to connect as the same
+ * user. The user and thread ids are kept.
+ */
+public class OrbConnection {
+    private static final String TAG = "OrbConnection";
+    private static final String PREFERENCES = "ai.meya.orb.connection";
+    private static final String USER_ID = "userId";
+    private static final String THREAD_ID = "threadId";
+    private static final long CONNECT_TIMEOUT = 3000;
+    private static final long RETRY_BASE_DELAY = 10;
+    private static final long RETRY_MAX_DELAY = 60000;
+    private static final int MIN_HEARTBEAT_INTERVAL = 5;
+
+    final OrbListenerRegistry<Orb.ConnectedListener> connectedListeners = new OrbListenerRegistry<>();
+    final OrbListenerRegistry<Orb.DisconnectedListener> disconnectedListeners = new OrbListenerRegistry<>();
+    final OrbListenerRegistry<Orb.FirstConnectListener> firstConnectListeners = new OrbListenerRegistry<>();
+    final OrbListenerRegistry<Orb.ReconnectListener> reconnectListeners = new OrbListenerRegistry<>();
+    final OrbListenerRegistry<Orb.EventListener> eventListeners = new OrbListenerRegistry<>();
+    final OrbListenerRegistry<Orb.EventStreamListener> eventStreamListeners = new OrbListenerRegistry<>();
+
+    private final OrbConnectionOptions options;
+    private final OkHttpClient client;
+    private final SharedPreferences preferences;
+    private final String version;
+    private final Random random = new Random();
+    // Owns the connection state: socket callbacks and timers all run on it.
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }
+    );
+    private volatile Executor listenerExecutor = new Executor() {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            handler.post(command);
+        }
+    };
+
+    private volatile String gridUserId;
+    private String userId;
+    private volatile String threadId;
+    private String sessionToken;
+    private String magicLinkId;
+    private String deviceState = "resumed";
+    private boolean firstConnect = true;
+    private boolean reconnectOnClose = false;
+    private int retries = 0;
+    private WebSocket socket;
+    private volatile boolean connected = false;
+    private ScheduledFuture<?> connectTimeout;
+    private ScheduledFuture<?> heartbeat;
+    private ScheduledFuture<?> reconnect;
+    // Newest first, like the Dart event stream.
+    private final ArrayList<Map<String, Object>> eventStream = new ArrayList<>();
+    private final HashSet<Object> eventIds = new HashSet<>();
+
+    @SuppressLint("HardwareIds")
+    public OrbConnection(@NonNull Context context, @NonNull OrbConnectionOptions options) {
+        this(
+                withDeviceId(context, options),
+                new OkHttpClient(),
+                context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE),
+                getVersion(context)
+        );
+    }
+
+    OrbConnection(
+            @NonNull OrbConnectionOptions options,
+            @NonNull OkHttpClient client,
+            @Nullable SharedPreferences preferences,
+            @Nullable String version
+    ) {
+        this.options = options;
+        this.client = client;
+        this.preferences = preferences;
+        this.version = version;
+        this.gridUserId = options.gridUserId;
+        this.userId = options.userId;
+        this.threadId = options.threadId;
+        this.sessionToken = options.sessionToken;
+        this.magicLinkId = options.magicLinkId;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @return the grid user id of the connected user, to tell their own
+     * events apart, or null before the first connect.
+     */
+    @Nullable
+    public String getGridUserId() {
+        return gridUserId;
+    }
+
+    @Nullable
+    public String getThreadId() {
+        return threadId;
+    }
+
+    /**
+     * @return the thread's events received so far, newest first.
+     */
+    @NonNull
+    public List<Map<String, Object>> getEventStream() {
+        synchronized (eventStream) {
+            return new ArrayList<>(eventStream);
+        }
+    }
+
+    /**
+     * Sets the executor used to call the listeners. A null executor calls
+     * them on the connection's own thread.
+     */
+    public void setListenerExecutor(@Nullable Executor executor) {
+        listenerExecutor = executor;
+    }
+
+    public void connect() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                reconnectOnClose = true;
+                cancel(reconnect);
+                open();
+            }
+        });
+    }
+
+    /**
+     * Closes the socket. Logging out also forgets the user and thread, so
+     * that the next connect starts a new thread.
+     */
+    public void disconnect(final boolean logOut) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (logOut) logOut();
+                reconnectOnClose = false;
+                retries = 0;
+                cancel(reconnect);
+                close();
+                emit(disconnectedListeners, new Emitter<Orb.DisconnectedListener>() {
+                    @Override
+                    public void emit(Orb.DisconnectedListener listener) {
+                        listener.onDisconnected();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Disconnects and stops the connection's thread. The connection can't
+     * be used afterwards.
+     */
+    public void release() {
+        disconnect(false);
+        executor.shutdown();
+    }
+
+    /**
+     * The future succeeds once the event has been queued on the socket, and
+     * fails if there is no socket.
+     */
+    @NonNull
+    public OrbFuture<Void> publishEvent(@NonNull Map<String, Object> event) {
+        return publishEvents(Collections.singletonList(event));
+    }
+
+    @NonNull
+    public OrbFuture<Void> publishEvents(@NonNull final List<Map<String, Object>> events) {
+        final OrbFuture<Void> future = new OrbFuture<>();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Map<String, Object> event : events) {
+                    if (!publish(event)) {
+                        future.fail(new OrbException("disconnected", "Orb has no connection", null));
+                        return;
+                    }
+                }
+                future.complete(null);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Reports the app's lifecycle state ("resumed", "inactive", "paused" or
+     * "detached"). Heartbeats are only sent while resumed.
+     */
+    public void setDeviceState(@NonNull final String state) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deviceState = state;
+                if (!connected) return;
+                Map<String, Object> data = deviceData("state", state);
+                data.put("state", state);
+                publish(event("meya.orb.event.device.state", data));
+            }
+        });
+    }
+
+    public void addConnectedListener(@NonNull Orb.ConnectedListener listener) {
+        connectedListeners.add(listener, false);
+    }
+
+    public void removeConnectedListener(@NonNull Orb.ConnectedListener listener) {
+        connectedListeners.remove(listener);
+    }
+
+    public void addDisconnectedListener(@NonNull Orb.DisconnectedListener listener) {
+        disconnectedListeners.add(listener, false);
+    }
+
+    public void removeDisconnectedListener(@NonNull Orb.DisconnectedListener listener) {
+        disconnectedListeners.remove(listener);
+    }
+
+    public void addFirstConnectListener(@NonNull Orb.FirstConnectListener listener) {
+        firstConnectListeners.add(listener, false);
+    }
+
+    public void removeFirstConnectListener(@NonNull Orb.FirstConnectListener listener) {
+        firstConnectListeners.remove(listener);
+    }
+
+    public void addReconnectListener(@NonNull Orb.ReconnectListener listener) {
+        reconnectListeners.add(listener, false);
+    }
+
+    public void removeReconnectListener(@NonNull Orb.ReconnectListener listener) {
+        reconnectListeners.remove(listener);
+    }
+
+    public void addEventListener(@NonNull Orb.EventListener listener) {
+        eventListeners.add(listener, false);
+    }
+
+    public void removeEventListener(@NonNull Orb.EventListener listener) {
+        eventListeners.remove(listener);
+    }
+
+    public void addEventStreamListener(@NonNull Orb.EventStreamListener listener) {
+        eventStreamListeners.add(listener, false);
+    }
+
+    public void removeEventStreamListener(@NonNull Orb.EventStreamListener listener) {
+        eventStreamListeners.remove(listener);
+    }
+
+    private void open() {
+        close();
+        if (userId == null && preferences != null) userId = preferences.getString(USER_ID, null);
+        if (threadId == null && preferences != null) threadId = preferences.getString(THREAD_ID, null);
+        if (threadId == null) threadId = "ot-" + UUID.randomUUID().toString().replace("-", "");
+
+        HttpUrl.Builder url = HttpUrl.get(options.gridUrl).newBuilder()
+                .addPathSegments("gateway/v2/orb_mobile")
+                .addPathSegment(options.appId)
+                .addPathSegment(options.integrationId);
+        if (userId != null) url.addQueryParameter("user_id", userId);
+        url.addQueryParameter("thread_id", threadId);
+        if (sessionToken != null) url.addQueryParameter("session_token", sessionToken);
+        if (magicLinkId != null && firstConnect) url.addQueryParameter("magic_link_id", magicLinkId);
+        if (version != null) url.addQueryParameter("version", version);
+
+        Log.d(TAG, "Connecting to '" + options.gridUrl + "'");
+        socket = client.newWebSocket(new Request.Builder().url(url.build()).build(), new SocketListener());
+        final WebSocket opened = socket;
+        connectTimeout = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Log.d(TAG, "Timed out after " + CONNECT_TIMEOUT + "ms");
+                // Fails the socket, which schedules a reconnect.
+                opened.cancel();
+            }
+        }, CONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    private void close() {
+        cancel(connectTimeout);
+        cancel(heartbeat);
+        connected = false;
+        if (socket != null) {
+            socket.close(1000, null);
+            socket = null;
+        }
+    }
+
+    private void onClosed(WebSocket closed) {
+        if (closed != socket) {
+            return;
+        }
+        cancel(connectTimeout);
+        cancel(heartbeat);
+        socket = null;
+        connected = false;
+        if (!reconnectOnClose) {
+            return;
+        }
+        long delay = getRetryDelay();
+        Log.d(TAG, "Reconnecting in " + delay + "ms");
+        retries++;
+        reconnect = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (reconnectOnClose) open();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Mirrors the Dart backoff, 10ms doubling with each retry and a 10%
+     * jitter, but capped.
+     */
+    private long getRetryDelay() {
+        double variance = random.nextDouble() * 0.2 + 0.9;
+        double backoff = Math.pow(2, Math.min(retries, 30));
+        return (long) Math.min(RETRY_MAX_DELAY, RETRY_BASE_DELAY * variance * backoff);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void onEntry(WebSocket from, byte[] bytes) {
+        if (from != socket) {
+            return;
+        }
+        Map<String, Object> entry;
+        try {
+            entry = (Map<String, Object>) new OrbMsgPackReader(bytes).read();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Could not decode entry: " + e.getMessage());
+            return;
+        }
+        Map<String, Object> data = (Map<String, Object>) entry.get("data");
+        if (data == null) {
+            return;
+        }
+        String type = (String) entry.get("type");
+        if ("meya.orb.entry.ws.connected_request".equals(type)) {
+            onConnected(data);
+        } else if ("meya.orb.entry.ws.publish_request".equals(type)) {
+            Map<String, Object> event = (Map<String, Object>) data.get("event");
+            if (event != null) onEvents(Collections.singletonList(event), "event");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void onConnected(Map<String, Object> data) {
+        cancel(connectTimeout);
+        Log.d(TAG, "Connected to grid v" + data.get("grid_version"));
+        connected = true;
+        retries = 0;
+        gridUserId = (String) data.get("grid_user_id");
+        userId = (String) data.get("user_id");
+        sessionToken = (String) data.get("session_token");
+        if (preferences != null) {
+            preferences.edit().putString(USER_ID, userId).putString(THREAD_ID, threadId).apply();
+        }
+        emit(connectedListeners, new Emitter<Orb.ConnectedListener>() {
+            @Override
+            public void emit(Orb.ConnectedListener listener) {
+                listener.onConnected();
+            }
+        });
+
+        if (options.deviceToken != null) {
+            Map<String, Object> device = deviceData("state", deviceState);
+            device.put("device_token", options.deviceToken);
+            device.put("state", deviceState);
+            device.put("platform", "android");
+            publish(event("meya.orb.event.device.connect", device));
+        }
+        Number interval = (Number) data.get("heartbeat_interval_seconds");
+        if (interval != null && interval.intValue() >= MIN_HEARTBEAT_INTERVAL) {
+            heartbeat = executor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    if (!"resumed".equals(deviceState)) return;
+                    long timestamp = System.currentTimeMillis();
+                    Map<String, Object> heartbeat = deviceData("timestamp", timestamp);
+                    heartbeat.put("timestamp", timestamp);
+                    publish(event("meya.orb.event.device.heartbeat", heartbeat));
+                }
+            }, interval.longValue(), interval.longValue(), TimeUnit.SECONDS);
+        }
+
+        boolean first = firstConnect;
+        firstConnect = false;
+        List<Map<String, Object>> history = (List<Map<String, Object>>) data.get("history_events");
+        onEvents(history != null ? history : new ArrayList<Map<String, Object>>(), first ? "firstConnect" : "reconnect");
+    }
+
+    /**
+     * Adds the events to the event stream and, like the Dart side, calls
+     * the listeners only if some of them were new.
+     */
+    private void onEvents(List<Map<String, Object>> events, final String callback) {
+        final Map<String, Object> latest = events.isEmpty() ? null : events.get(0);
+        final List<Map<String, Object>> snapshot;
+        synchronized (eventStream) {
+            boolean added = false;
+            for (Map<String, Object> event : events) {
+                if (eventIds.add(event.get("id"))) {
+                    eventStream.add(event);
+                    added = true;
+                }
+            }
+            if (!added) {
+                return;
+            }
+            Collections.sort(eventStream, Collections.reverseOrder(OrbEventDelta.EVENT_ORDER));
+            snapshot = Collections.unmodifiableList(new ArrayList<>(eventStream));
+        }
+        emit(eventStreamListeners, new Emitter<Orb.EventStreamListener>() {
+            @Override
+            public void emit(Orb.EventStreamListener listener) {
+                listener.onEventStream(snapshot);
+            }
+        });
+        switch (callback) {
+            case "firstConnect":
+                emit(firstConnectListeners, new Emitter<Orb.FirstConnectListener>() {
+                    @Override
+                    public void emit(Orb.FirstConnectListener listener) {
+                        listener.onFirstConnect(snapshot);
+                    }
+                });
+                break;
+            case "reconnect":
+                emit(reconnectListeners, new Emitter<Orb.ReconnectListener>() {
+                    @Override
+                    public void emit(Orb.ReconnectListener listener) {
+                        listener.onReconnect(snapshot);
+                    }
+                });
+                break;
+            default:
+                emit(eventListeners, new Emitter<Orb.EventListener>() {
+                    @Override
+                    public void emit(Orb.EventListener listener) {
+                        listener.onEvent(latest, snapshot);
+                    }
+                });
+                break;
+        }
+    }
+
+    private void logOut() {
+        gridUserId = null;
+        userId = null;
+        threadId = options.threadId;
+        sessionToken = null;
+        magicLinkId = null;
+        firstConnect = true;
+        if (preferences != null) preferences.edit().clear().apply();
+        synchronized (eventStream) {
+            eventStream.clear();
+            eventIds.clear();
+        }
+        final List<Map<String, Object>> empty = Collections.emptyList();
+        emit(eventStreamListeners, new Emitter<Orb.EventStreamListener>() {
+            @Override
+            public void emit(Orb.EventStreamListener listener) {
+                listener.onEventStream(empty);
+            }
+        });
+    }
+
+    /**
+     * @return false if there is no socket, or it is closing.
+     */
+    private boolean publish(Map<String, Object> event) {
+        if (socket == null) {
+            return false;
+        }
+        Map<String, Object> published = new HashMap<>();
+        published.put("type", event.get("type"));
+        published.put("data", event.get("data"));
+        Map<String, Object> data = new HashMap<>();
+        data.put("request_id", UUID.randomUUID().toString().replace("-", ""));
+        data.put("event", published);
+        data.put("thread_id", threadId);
+        Map<String, Object> entry = new HashMap<>();
+        entry.put("type", "meya.orb.entry.ws.publish_request");
+        entry.put("data", data);
+        byte[] bytes = new OrbMsgPackWriter().write(entry).toByteArray();
+        return socket.send(ByteString.of(bytes));
+    }
+
+    private Map<String, Object> deviceData(String key, Object value) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("device_id", options.deviceId);
+        data.put("key", key);
+        data.put("value", value);
+        return data;
+    }
+
+    private static Map<String, Object> event(String type, Map<String, Object> data) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("type", type);
+        event.put("data", data);
+        return event;
+    }
+
+    private interface Emitter<T> {
+        void emit(T listener);
+    }
+
+    private <T> void emit(final OrbListenerRegistry<T> listeners, final Emitter<T> emitter) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                for (T listener : listeners) emitter.emit(listener);
+            }
+        };
+        Executor executor = listenerExecutor;
+        if (executor != null) {
+            executor.execute(runnable);
+        } else {
+            runnable.run();
+        }
+    }
+
+    private static void cancel(@Nullable ScheduledFuture<?> future) {
+        if (future != null) future.cancel(false);
+    }
+
+    @SuppressLint("HardwareIds")
+    private static OrbConnectionOptions withDeviceId(Context context, OrbConnectionOptions options) {
+        if (options.deviceId == null) {
+            options.deviceId = Settings.Secure.getString(
+                    context.getContentResolver(), Settings.Secure.ANDROID_ID
+            );
+        }
+        return options;
+    }
+
+    @Nullable
+    private static String getVersion(Context context) {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).versionName;
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Runs on the connection's thread, unless the connection was released.
+     */
+    private void post(Runnable runnable) {
+        if (!executor.isShutdown()) {
+            executor.execute(runnable);
+        }
+    }
+
+    /**
+     * Hands the socket callbacks, which OkHttp makes on its reader thread,
+     * over to the connection's thread.
+     */
+    private class SocketListener extends WebSocketListener {
+        @Override
+        public void onMessage(@NonNull final WebSocket webSocket, @NonNull ByteString bytes) {
+            final byte[] entry = bytes.toByteArray();
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    onEntry(webSocket, entry);
+                }
+            });
+        }
+
+        @Override
+        public void onClosing(@NonNull WebSocket webSocket, int code, @NonNull String reason) {
+            webSocket.close(1000, null);
+        }
+
+        @Override
+        public void onClosed(@NonNull final WebSocket webSocket, int code, @NonNull String reason) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    OrbConnection.this.onClosed(webSocket);
+                }
+            });
+        }
+
+        @Override
+        public void onFailure(@NonNull final WebSocket webSocket, @NonNull Throwable t, @Nullable Response response) {
+            Log.e(TAG, "Socket failure: " + t.getMessage());
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    OrbConnection.this.onClosed(webSocket);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package ai.meya.orb;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.util.Log;
+
+import ai.meya.orb.config.OrbConfig;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import io.flutter.embedding.engine.FlutterEngine;
+import io.flutter.embedding.engine.FlutterEngineCache;
+
+/**
+ * Keeps a pre-warmed Orb engine in the {@link FlutterEngineCache}, so that
+ * {@link OrbActivity} can open the chat without booting a new engine.
+ *
+ * The engine is released when {@link Orb#releasePrewarmed()} is called, or
+ * when the system asks to trim memory while no activity is using it.
+ */
+final class OrbEngineCache {
+    private static final String TAG = "OrbEngineCache";
+
+    private static Orb orb;
+    private static int hosts = 0;
+    private static boolean scheduled = false;
+    private static ComponentCallbacks2 memoryCallbacks;
+    private static Context applicationContext;
+
+    private OrbEngineCache() {}
+
+    /**
+     * Creates the engine once the main thread is idle.
+     */
+    static void prewarm(
+            @NonNull Context context,
+            @Nullable final OrbConfig config,
+            @Nullable final OrbConnectionOptions options
+    ) {
+        final Context appContext = context.getApplicationContext();
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                if (orb != null || scheduled) {
+                    return;
+                }
+                scheduled = true;
+                Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                    @Override
+                    public boolean queueIdle() {
+                        scheduled = false;
+                        prewarmNow(appContext, config, options);
+                        return false;
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Creates, initializes and caches the engine right away. Must be called
+     * on the main thread.
+     */
+    @NonNull
+    static Orb prewarmNow(
+            @NonNull Context context,
+            @Nullable OrbConfig config,
+            @Nullable OrbConnectionOptions options
+    ) {
+        if (orb != null) {
+            return orb;
+        }
+        Log.d(TAG, "Pre-warming Orb engine");
+        applicationContext = context.getApplicationContext();
+        FlutterEngine engine = new FlutterEngine(applicationContext);
+        orb = new Orb(applicationContext, engine);
+        orb.initialize();
+        // Queued until the Dart side is ready.
+        if (config != null) orb.configure(config);
+        if (options != null) orb.connect(options);
+        FlutterEngineCache.getInstance().put(Orb.ENGINE_ID, engine);
+
+        memoryCallbacks = new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if (level >= TRIM_MEMORY_BACKGROUND) releaseIfUnused();
+            }
+
+            @Override
+            public void onLowMemory() {
+                releaseIfUnused();
+            }
+
+            @Override
+            public void onConfigurationChanged(@NonNull Configuration newConfig) {}
+        };
+        applicationContext.registerComponentCallbacks(memoryCallbacks);
+        return orb;
+    }
+
+    @Nullable
+    static Orb get() {
+        return orb;
+    }
+
+    static boolean isPrewarmed(@Nullable FlutterEngine engine) {
+        return orb != null && orb.engine == engine;
+    }
+
+    static void attach() {
+        hosts++;
+    }
+
+    static void detach() {
+        hosts = Math.max(0, hosts - 1);
+    }
+
+    static void release() {
+        if (orb == null) {
+            return;
+        }
+        Log.d(TAG, "Releasing pre-warmed Orb engine");
+        FlutterEngineCache.getInstance().remove(Orb.ENGINE_ID);
+        if (memoryCallbacks != null) {
+            applicationContext.unregisterComponentCallbacks(memoryCallbacks);
+            memoryCallbacks = null;
+        }
+        FlutterEngine engine = orb.engine;
+        orb = null;
+        hosts = 0;
+        engine.destroy();
+    }
+
+    private static void releaseIfUnused() {
+        if (hosts == 0) {
+            release();
+        }
+    }
+}
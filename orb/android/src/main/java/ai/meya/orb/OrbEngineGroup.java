@@ -0,0 +1,234 @@
+package ai.meya.orb;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import io.flutter.embedding.engine.FlutterEngine;
+import io.flutter.embedding.engine.FlutterEngineCache;
+import io.flutter.embedding.engine.FlutterEngineGroup;
+
+/**
+ * Orb instances for several integrations, keyed by integration id. Their
+ * engines are spawned from a shared {@link FlutterEngineGroup}, so they
+ * share the Dart VM and the compiled Dart code, while each has its own
+ * plugin, listeners and connection.
+ *
+ * Only the most recently used instances stay connected. Older ones that no
+ * activity is showing are suspended, their connection closed, and they are
+ * reconnected with the same options the next time they are used. Suspended
+ * instances are released when the system asks to trim memory, see
+ * {@link Orb#getInstance}.
+ *
+ * All methods must be called on the main thread.
+ */
+final class OrbEngineGroup {
+    private static final String TAG = "OrbEngineGroup";
+    static final int DEFAULT_MAX_ACTIVE = 2;
+
+    private static class Instance {
+        final String integrationId;
+        final Orb orb;
+        int hosts = 0;
+        boolean suspended = false;
+
+        Instance(String integrationId, Orb orb) {
+            this.integrationId = integrationId;
+            this.orb = orb;
+        }
+    }
+
+    private static FlutterEngineGroup group;
+    private static Context applicationContext;
+    private static ComponentCallbacks2 memoryCallbacks;
+    // In access order, the least recently used instance first.
+    private static final LinkedHashMap<String, Instance> instances = new LinkedHashMap<>(4, 0.75f, true);
+    private static int maxActive = DEFAULT_MAX_ACTIVE;
+
+    private OrbEngineGroup() {}
+
+    /**
+     * @return the id of the instance's engine in the {@link FlutterEngineCache}.
+     */
+    static String engineId(@NonNull String integrationId) {
+        return Orb.ENGINE_ID + ":" + integrationId;
+    }
+
+    /**
+     * Returns the instance of an integration, creating it or resuming it if
+     * needed, and marks it as the most recently used.
+     */
+    @NonNull
+    static Orb get(@NonNull Context context, @NonNull String integrationId) {
+        Instance instance = instances.get(integrationId);
+        if (instance == null) {
+            instance = create(context, integrationId);
+        } else {
+            resume(instance);
+        }
+        suspendIdle();
+        return instance.orb;
+    }
+
+    @Nullable
+    private static Instance find(@Nullable FlutterEngine engine) {
+        for (Instance instance : instances.values()) {
+            if (instance.orb.engine == engine) return instance;
+        }
+        return null;
+    }
+
+    static boolean isGrouped(@Nullable FlutterEngine engine) {
+        return find(engine) != null;
+    }
+
+    /**
+     * Marks the instance running in the engine as shown by an activity,
+     * which keeps it from being suspended.
+     *
+     * @return the instance, or null if the engine isn't part of the group.
+     */
+    @Nullable
+    static Orb attach(@Nullable FlutterEngine engine) {
+        Instance instance = find(engine);
+        if (instance == null) {
+            return null;
+        }
+        // Looking it up marks it as the most recently used.
+        instances.get(instance.integrationId);
+        instance.hosts++;
+        resume(instance);
+        suspendIdle();
+        return instance.orb;
+    }
+
+    static void detach(@Nullable FlutterEngine engine) {
+        Instance instance = find(engine);
+        if (instance != null) {
+            instance.hosts = Math.max(0, instance.hosts - 1);
+            suspendIdle();
+        }
+    }
+
+    /**
+     * Marks the instance running in the engine as active when it is
+     * connected directly, so that it isn't connected again when resumed.
+     */
+    static void onConnect(@Nullable FlutterEngine engine) {
+        Instance instance = find(engine);
+        if (instance == null) {
+            return;
+        }
+        // Looking it up marks it as the most recently used.
+        instances.get(instance.integrationId);
+        instance.suspended = false;
+        suspendIdle();
+    }
+
+    static void setMaxActive(int max) {
+        maxActive = Math.max(1, max);
+        suspendIdle();
+    }
+
+    /**
+     * Destroys the instance's engine and removes it from the group.
+     */
+    static void release(@NonNull String integrationId) {
+        Instance instance = instances.remove(integrationId);
+        if (instance == null) {
+            return;
+        }
+        Log.d(TAG, "Releasing Orb instance '" + integrationId + "'");
+        FlutterEngineCache.getInstance().remove(engineId(integrationId));
+        instance.orb.released = true;
+        instance.orb.engine.destroy();
+    }
+
+    private static Instance create(Context context, String integrationId) {
+        if (group == null) {
+            applicationContext = context.getApplicationContext();
+            group = new FlutterEngineGroup(applicationContext);
+            registerMemoryCallbacks();
+        }
+        Log.d(TAG, "Creating Orb instance '" + integrationId + "'");
+        FlutterEngine engine = group.createAndRunDefaultEngine(applicationContext);
+        Orb orb = new Orb(applicationContext, engine);
+        orb.integrationId = integrationId;
+        orb.initialize();
+        FlutterEngineCache.getInstance().put(engineId(integrationId), engine);
+        Instance instance = new Instance(integrationId, orb);
+        instances.put(integrationId, instance);
+        return instance;
+    }
+
+    private static void resume(Instance instance) {
+        if (!instance.suspended) {
+            return;
+        }
+        Log.d(TAG, "Resuming Orb instance '" + instance.integrationId + "'");
+        instance.suspended = false;
+        OrbPlugin plugin = Orb.getPlugin(instance.orb.engine);
+        OrbConnectionOptions options = instance.orb.connectionOptions;
+        if (plugin != null && options != null) plugin.connect(options);
+    }
+
+    /**
+     * Suspends the instances that are neither shown by an activity nor among
+     * the {@link #maxActive} most recently used.
+     */
+    private static void suspendIdle() {
+        ArrayList<Instance> leastRecentFirst = new ArrayList<>(instances.values());
+        int active = 0;
+        for (int i = leastRecentFirst.size() - 1; i >= 0; i--) {
+            Instance instance = leastRecentFirst.get(i);
+            if (instance.suspended) {
+                continue;
+            }
+            if (active < maxActive || instance.hosts > 0) {
+                active++;
+                continue;
+            }
+            Log.d(TAG, "Suspending Orb instance '" + instance.integrationId + "'");
+            instance.suspended = true;
+            OrbPlugin plugin = Orb.getPlugin(instance.orb.engine);
+            if (plugin != null && instance.orb.connectionOptions != null) plugin.disconnect(false);
+        }
+    }
+
+    private static void releaseSuspended() {
+        ArrayList<String> suspended = new ArrayList<>();
+        for (Map.Entry<String, Instance> entry : instances.entrySet()) {
+            Instance instance = entry.getValue();
+            if (instance.suspended && instance.hosts == 0) suspended.add(entry.getKey());
+        }
+        for (String integrationId : suspended) {
+            release(integrationId);
+        }
+    }
+
+    private static void registerMemoryCallbacks() {
+        memoryCallbacks = new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if (level >= TRIM_MEMORY_BACKGROUND) releaseSuspended();
+            }
+
+            @Override
+            public void onLowMemory() {
+                releaseSuspended();
+            }
+
+            @Override
+            public void onConfigurationChanged(@NonNull Configuration newConfig) {}
+        };
+        applicationContext.registerComponentCallbacks(memoryCallbacks);
+    }
+}
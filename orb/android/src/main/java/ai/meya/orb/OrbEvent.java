@@ -0,0 +1,209 @@
+package ai.meya.orb;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Typed view of an Orb event.
+ *
+ * Events received over the binary channel are backed by their msgpack
+ * payload: a field is only decoded the first time it is read and is cached
+ * after that. Since an OrbEvent is also a {@code Map<String, Object>}, it can
+ * be handed to the existing map-based listeners, iterating over it decodes
+ * the whole event.
+ */
+public class OrbEvent extends AbstractMap<String, Object> {
+    private static final byte[] DATA_KEY = "data".getBytes(OrbMsgPackReader.UTF_8);
+
+    private final byte[] bytes;
+    private final int offset;
+    private Map<String, Object> map;
+    private HashMap<String, Object> fields;
+    private HashMap<String, Object> dataFields;
+
+    OrbEvent(byte[] bytes, int offset) {
+        this.bytes = bytes;
+        this.offset = offset;
+    }
+
+    private OrbEvent(Map<String, Object> map) {
+        this.bytes = null;
+        this.offset = 0;
+        this.map = map;
+    }
+
+    /**
+     * @return the event itself if it already is an OrbEvent, otherwise a
+     * typed view over the map.
+     */
+    @NonNull
+    public static OrbEvent of(@NonNull Map<String, Object> event) {
+        if (event instanceof OrbEvent) {
+            return (OrbEvent) event;
+        }
+        return new OrbEvent(event);
+    }
+
+    /**
+     * @return a read-only typed view of an event stream, events are wrapped
+     * as they are accessed.
+     */
+    @NonNull
+    public static List<OrbEvent> listOf(@NonNull final List<Map<String, Object>> eventStream) {
+        return new AbstractList<OrbEvent>() {
+            @Override
+            public OrbEvent get(int index) {
+                return of(eventStream.get(index));
+            }
+
+            @Override
+            public int size() {
+                return eventStream.size();
+            }
+        };
+    }
+
+    @Nullable
+    public String getId() {
+        return asString(get("id"));
+    }
+
+    @Nullable
+    public String getType() {
+        return asString(get("type"));
+    }
+
+    /**
+     * @return the event data, fully decoded.
+     */
+    @NonNull
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> getData() {
+        Object data = get("data");
+        return data instanceof Map ? (Map<String, Object>) data : Collections.<String, Object>emptyMap();
+    }
+
+    /**
+     * @return a single value of the event data, without decoding the rest
+     * of the data.
+     */
+    @Nullable
+    public synchronized Object getData(String key) {
+        if (map != null || bytes == null) {
+            Object data = get("data");
+            return data instanceof Map ? ((Map<?, ?>) data).get(key) : null;
+        }
+        if (fields != null && fields.containsKey("data")) {
+            Object data = fields.get("data");
+            return data instanceof Map ? ((Map<?, ?>) data).get(key) : null;
+        }
+        if (dataFields == null) {
+            dataFields = new HashMap<>();
+        } else if (dataFields.containsKey(key)) {
+            return dataFields.get(key);
+        }
+        Object value = null;
+        OrbMsgPackReader reader = new OrbMsgPackReader(bytes, offset);
+        if (reader.seekMapValue(DATA_KEY) && reader.isMap()) {
+            if (reader.seekMapValue(key.getBytes(OrbMsgPackReader.UTF_8))) {
+                value = reader.read();
+            }
+        }
+        dataFields.put(key, value);
+        return value;
+    }
+
+    @Nullable
+    public String getUserId() {
+        return asString(getData("user_id"));
+    }
+
+    @Nullable
+    public String getText() {
+        return asString(getData("text"));
+    }
+
+    /**
+     * @return the time the event was published, in milliseconds since the
+     * epoch, taken from the event id. Returns 0 if the event has no id.
+     */
+    public long getTimestamp() {
+        String id = getId();
+        if (id == null) {
+            return 0;
+        }
+        int separator = id.indexOf('-');
+        try {
+            return Long.parseLong(separator < 0 ? id : id.substring(0, separator));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public synchronized Object get(Object key) {
+        if (map != null) {
+            return map.get(key);
+        }
+        if (!(key instanceof String)) {
+            return null;
+        }
+        if (fields == null) {
+            fields = new HashMap<>();
+        } else if (fields.containsKey(key)) {
+            return fields.get(key);
+        }
+        Object value = null;
+        OrbMsgPackReader reader = new OrbMsgPackReader(bytes, offset);
+        if (reader.seekMapValue(((String) key).getBytes(OrbMsgPackReader.UTF_8))) {
+            value = reader.read();
+        }
+        fields.put((String) key, value);
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return materialize().containsKey(key);
+    }
+
+    @NonNull
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return Collections.unmodifiableMap(materialize()).entrySet();
+    }
+
+    /**
+     * Encodes the event, copying its msgpack payload as is when it has one.
+     */
+    synchronized void writeTo(OrbMsgPackWriter writer) {
+        if (bytes == null) {
+            writer.write(map);
+            return;
+        }
+        OrbMsgPackReader reader = new OrbMsgPackReader(bytes, offset);
+        reader.skip();
+        writer.writeRaw(bytes, offset, reader.position() - offset);
+    }
+
+    private synchronized Map<String, Object> materialize() {
+        if (map == null) {
+            map = new OrbMsgPackReader(bytes, offset).readMap();
+            fields = null;
+            dataFields = null;
+        }
+        return map;
+    }
+
+    private static String asString(Object value) {
+        return value instanceof String ? (String) value : null;
+    }
+}
@@ -0,0 +1,53 @@
+package ai.meya.orb;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * The ephemeral event types, e.g. typing indicators, device states or
+ * header updates, that are out of date as soon as a newer event of the same
+ * kind arrives.
+ *
+ * The Dart side only keeps the latest event of each kind in the event
+ * streams it sends to the listeners, which shortens them and the frames
+ * that carry them. An event's kind is its type, or its type and the value
+ * of a key of its data, e.g. the latest typing indicator of each user. The
+ * number of events dropped per frame is recorded in the
+ * {@code compacted.<callback>} metric.
+ */
+public class OrbEventCompaction {
+    private final HashMap<String, String> keys = new HashMap<>();
+
+    /**
+     * Keeps only the latest event of the type.
+     *
+     * @return this compaction.
+     */
+    @NonNull
+    public OrbEventCompaction compact(@NonNull String type) {
+        return compact(type, null);
+    }
+
+    /**
+     * Keeps only the latest event of the type for each value of
+     * {@code dataKey} in the event data, e.g. "user_id".
+     *
+     * @return this compaction.
+     */
+    @NonNull
+    public OrbEventCompaction compact(@NonNull String type, @Nullable String dataKey) {
+        keys.put(type, dataKey);
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    Map<String, Object> toMap() {
+        return new HashMap<String, Object>(keys);
+    }
+}
@@ -0,0 +1,164 @@
+package ai.meya.orb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Native mirror of the Dart event stream for a delta-mode subscription.
+ *
+ * The Dart side sends a full frame the first time (or whenever events were
+ * removed other than by compaction) and after that only the events that are
+ * new or changed, and the ids of the events compacted away. Every
+ * frame carries a sequence number so that a missed frame can be detected and
+ * a full resync requested.
+ */
+class OrbEventDelta {
+    static final Comparator<Map<String, Object>> EVENT_ORDER = new Comparator<Map<String, Object>>() {
+        @Override
+        public int compare(Map<String, Object> a, Map<String, Object> b) {
+            return compareIds((String) a.get("id"), (String) b.get("id"));
+        }
+    };
+
+    // Events are kept oldest first so that new events are a cheap append,
+    // the Dart side (and listeners) see them newest first.
+    private final ArrayList<Map<String, Object>> events = new ArrayList<>();
+    private final HashMap<Object, Integer> positions = new HashMap<>();
+    private long sequence = 0;
+    private boolean synced = false;
+
+    /**
+     * Applies a frame sent by the Dart side.
+     *
+     * @return false if the frame does not follow the last applied frame, in
+     * which case the mirror is left untouched and a resync is required.
+     */
+    synchronized boolean apply(Map<String, Object> arguments) {
+        long frameSequence = ((Number) arguments.get("sequence")).longValue();
+        boolean full = Boolean.TRUE.equals(arguments.get("full"));
+        List<Map<String, Object>> frameEvents = extractEvents(arguments);
+
+        if (full) {
+            events.clear();
+            positions.clear();
+        } else if (!synced || frameSequence != sequence + 1) {
+            synced = false;
+            return false;
+        }
+
+        List<?> removed = (List<?>) arguments.get("removed");
+        if (removed != null && !removed.isEmpty()) {
+            remove(removed);
+        }
+
+        boolean sorted = true;
+        for (int i = frameEvents.size() - 1; i >= 0; i--) {
+            Map<String, Object> event = frameEvents.get(i);
+            Object id = event.get("id");
+            Integer position = positions.get(id);
+            if (position != null) {
+                events.set(position, event);
+                continue;
+            }
+            if (!events.isEmpty() && EVENT_ORDER.compare(events.get(events.size() - 1), event) > 0) {
+                sorted = false;
+            }
+            positions.put(id, events.size());
+            events.add(event);
+        }
+        if (!sorted) {
+            Collections.sort(events, EVENT_ORDER);
+            positions.clear();
+            for (int i = 0; i < events.size(); i++) {
+                positions.put(events.get(i).get("id"), i);
+            }
+        }
+
+        sequence = frameSequence;
+        synced = true;
+        return true;
+    }
+
+    private void remove(List<?> ids) {
+        for (Object id : ids) {
+            Integer position = positions.remove(id);
+            if (position != null) events.set(position, null);
+        }
+        int size = 0;
+        for (int i = 0; i < events.size(); i++) {
+            Map<String, Object> event = events.get(i);
+            if (event == null) continue;
+            events.set(size, event);
+            positions.put(event.get("id"), size);
+            size++;
+        }
+        events.subList(size, events.size()).clear();
+    }
+
+    synchronized void reset() {
+        events.clear();
+        positions.clear();
+        sequence = 0;
+        synced = false;
+    }
+
+    /**
+     * @return a snapshot of the mirrored event stream, newest event first.
+     */
+    synchronized List<Map<String, Object>> getEventStream() {
+        ArrayList<Map<String, Object>> eventStream = new ArrayList<>(events.size());
+        for (int i = events.size() - 1; i >= 0; i--) {
+            eventStream.add(events.get(i));
+        }
+        return eventStream;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> extractEvents(Map<String, Object> arguments) {
+        List<Map<String, Object>> frameEvents = (List<Map<String, Object>>) arguments.get("events");
+        if (frameEvents != null) {
+            return frameEvents;
+        } else {
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Orders event ids of the form "{timestamp}-{sequence}" the same way as
+     * the Dart `OrbEvent.compareTo`. Ids of any other form are compared as
+     * strings.
+     */
+    static int compareIds(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        int aSeparator = a.indexOf('-');
+        int bSeparator = b.indexOf('-');
+        if (aSeparator < 0 || bSeparator < 0) {
+            return a.compareTo(b);
+        }
+        try {
+            int result = compareLongs(
+                    Long.parseLong(a.substring(0, aSeparator)),
+                    Long.parseLong(b.substring(0, bSeparator))
+            );
+            if (result != 0) {
+                return result;
+            }
+            return compareLongs(
+                    Long.parseLong(a.substring(aSeparator + 1)),
+                    Long.parseLong(b.substring(bSeparator + 1))
+            );
+        } catch (NumberFormatException e) {
+            return a.compareTo(b);
+        }
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+}
@@ -0,0 +1,44 @@
+package ai.meya.orb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A page of the event stream, see {@link Orb#getEvents}.
+ */
+public class OrbEventPage {
+    /**
+     * The page's events, newest first.
+     */
+    @NonNull
+    public final List<Map<String, Object>> events;
+    /**
+     * Pass to {@link Orb#getEvents} to get the next, older, page, or null if
+     * this is the last page.
+     */
+    @Nullable
+    public final String cursor;
+
+    public OrbEventPage(@NonNull List<Map<String, Object>> events, @Nullable String cursor) {
+        this.events = Collections.unmodifiableList(events);
+        this.cursor = cursor;
+    }
+
+    public boolean hasMore() {
+        return cursor != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    static OrbEventPage fromMap(Map<String, Object> page) {
+        List<Map<String, Object>> events = (List<Map<String, Object>>) page.get("events");
+        return new OrbEventPage(
+                events != null ? events : new ArrayList<Map<String, Object>>(),
+                (String) page.get("cursor")
+        );
+    }
+}
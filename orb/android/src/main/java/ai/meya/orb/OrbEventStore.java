@@ -0,0 +1,188 @@
+package ai.meya.orb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Append-only store of the thread's events, owned by {@link Orb}.
+ *
+ * Events are kept in the order they were received, and indexed by event id,
+ * event type and user id so that lookups and "latest event of type" queries
+ * don't need to scan the whole event stream.
+ */
+public class OrbEventStore {
+    private final ArrayList<Map<String, Object>> events = new ArrayList<>();
+    private final HashMap<String, Integer> idIndex = new HashMap<>();
+    private final HashMap<String, ArrayList<Integer>> typeIndex = new HashMap<>();
+    private final HashMap<String, ArrayList<Integer>> userIdIndex = new HashMap<>();
+    private final HashMap<String, Integer> latestTypeIndex = new HashMap<>();
+    private final HashMap<String, Integer> latestUserIdIndex = new HashMap<>();
+    private String threadId;
+
+    public synchronized int size() {
+        return events.size();
+    }
+
+    /**
+     * @return the event at the given position, in the order received.
+     */
+    public synchronized Map<String, Object> get(int position) {
+        return events.get(position);
+    }
+
+    @Nullable
+    public synchronized Map<String, Object> getById(String id) {
+        Integer position = idIndex.get(id);
+        return position != null ? events.get(position) : null;
+    }
+
+    public synchronized boolean contains(String id) {
+        return idIndex.containsKey(id);
+    }
+
+    /**
+     * @return the events from position {@code from} (inclusive) to {@code to}
+     * (exclusive), clamped to the size of the store.
+     */
+    public synchronized List<Map<String, Object>> getRange(int from, int to) {
+        from = Math.max(0, from);
+        to = Math.min(events.size(), to);
+        if (from >= to) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(events.subList(from, to));
+    }
+
+    public synchronized List<Map<String, Object>> getByType(String type) {
+        return resolve(typeIndex.get(type));
+    }
+
+    public synchronized List<Map<String, Object>> getByUserId(String userId) {
+        return resolve(userIdIndex.get(userId));
+    }
+
+    @Nullable
+    public synchronized Map<String, Object> getLatestOfType(String type) {
+        Integer position = latestTypeIndex.get(type);
+        return position != null ? events.get(position) : null;
+    }
+
+    @Nullable
+    public synchronized Map<String, Object> getLatestOfUserId(String userId) {
+        Integer position = latestUserIdIndex.get(userId);
+        return position != null ? events.get(position) : null;
+    }
+
+    public synchronized void clear() {
+        threadId = null;
+        events.clear();
+        idIndex.clear();
+        typeIndex.clear();
+        userIdIndex.clear();
+        latestTypeIndex.clear();
+        latestUserIdIndex.clear();
+    }
+
+    /**
+     * Adds an event, or replaces the stored event with the same id.
+     */
+    synchronized void add(Map<String, Object> event) {
+        String id = (String) event.get("id");
+        Integer existing = id != null ? idIndex.get(id) : null;
+        if (existing != null) {
+            events.set(existing, event);
+            return;
+        }
+
+        int position = events.size();
+        events.add(event);
+        if (id != null) {
+            idIndex.put(id, position);
+        }
+        String type = (String) event.get("type");
+        if (type != null) {
+            index(typeIndex, latestTypeIndex, type, position);
+        }
+        String userId = getUserId(event);
+        if (userId != null) {
+            index(userIdIndex, latestUserIdIndex, userId, position);
+        }
+    }
+
+    /**
+     * Adds events given newest first, as they are sent by the Dart side.
+     */
+    synchronized void addAll(List<Map<String, Object>> eventStream) {
+        for (int i = eventStream.size() - 1; i >= 0; i--) {
+            add(eventStream.get(i));
+        }
+    }
+
+    /**
+     * Brings the store up to date with a complete event stream. The stream
+     * may be shorter than the store, e.g. once ephemeral events have been
+     * compacted out of it, the stored events are kept.
+     */
+    synchronized void sync(List<Map<String, Object>> eventStream) {
+        addAll(eventStream);
+    }
+
+    /**
+     * Clears the store when Orb connects to a different thread than the one
+     * its events are from.
+     */
+    synchronized void setThreadId(@Nullable String threadId) {
+        if (threadId == null || threadId.equals(this.threadId)) {
+            return;
+        }
+        if (this.threadId != null) clear();
+        this.threadId = threadId;
+    }
+
+    private void index(
+            HashMap<String, ArrayList<Integer>> index,
+            HashMap<String, Integer> latestIndex,
+            String key,
+            int position
+    ) {
+        ArrayList<Integer> positions = index.get(key);
+        if (positions == null) {
+            positions = new ArrayList<>();
+            index.put(key, positions);
+        }
+        positions.add(position);
+
+        Integer latest = latestIndex.get(key);
+        if (latest == null || OrbEventDelta.EVENT_ORDER.compare(events.get(latest), events.get(position)) <= 0) {
+            latestIndex.put(key, position);
+        }
+    }
+
+    private List<Map<String, Object>> resolve(List<Integer> positions) {
+        if (positions == null) {
+            return Collections.emptyList();
+        }
+        ArrayList<Map<String, Object>> result = new ArrayList<>(positions.size());
+        for (Integer position : positions) {
+            result.add(events.get(position));
+        }
+        return result;
+    }
+
+    private static String getUserId(Map<String, Object> event) {
+        if (event instanceof OrbEvent) {
+            return ((OrbEvent) event).getUserId();
+        }
+        Object data = event.get("data");
+        if (data instanceof Map) {
+            Object userId = ((Map<?, ?>) data).get("user_id");
+            return userId instanceof String ? (String) userId : null;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,18 @@
+package ai.meya.orb;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Error reported by the Dart side for an Orb command.
+ */
+public class OrbException extends Exception {
+    public final String code;
+    public final Object details;
+
+    public OrbException(@NonNull String code, @Nullable String message, @Nullable Object details) {
+        super(code + (message != null ? ": " + message : ""));
+        this.code = code;
+        this.details = details;
+    }
+}
@@ -0,0 +1,236 @@
+package ai.meya.orb;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Result of an Orb command, completed when the Dart side has handled it.
+ *
+ * {@code CompletableFuture} needs API 24, so this is a minimal equivalent:
+ * callers chain work with {@link #addCallback(Callback)}, or block with
+ * {@link #get()} on a background thread. Commands complete on the main
+ * thread, so {@link #get()} throws an {@link IllegalStateException} there
+ * rather than deadlock, unless the future is already done. Commands that
+ * fail complete with an {@link OrbException}, commands that time out with
+ * a {@link TimeoutException}.
+ *
+ * Cancelling a command, or letting it time out, before it was sent to the
+ * Dart side (e.g. while Orb isn't ready yet) means it is never sent. Once
+ * sent, its result is just ignored.
+ */
+public class OrbFuture<T> implements Future<T> {
+    public interface Callback<T> {
+        void onSuccess(@Nullable T result);
+
+        /**
+         * @param error an {@link OrbException}, a {@link TimeoutException}
+         *              or a {@link CancellationException}.
+         */
+        void onFailure(@NonNull Throwable error);
+    }
+
+    private static final Handler timeoutHandler = new Handler(Looper.getMainLooper());
+
+    private boolean done = false;
+    private T result;
+    private Throwable error;
+    private boolean cancelled = false;
+    private ArrayList<Runnable> callbacks = new ArrayList<>();
+    private Runnable timeout;
+
+    /**
+     * @return a future that has already succeeded.
+     */
+    @NonNull
+    public static <T> OrbFuture<T> succeeded(@Nullable T result) {
+        OrbFuture<T> future = new OrbFuture<>();
+        future.complete(result);
+        return future;
+    }
+
+    /**
+     * @return a future that has already failed.
+     */
+    @NonNull
+    public static <T> OrbFuture<T> failed(@NonNull Throwable error) {
+        OrbFuture<T> future = new OrbFuture<>();
+        future.fail(error);
+        return future;
+    }
+
+    /**
+     * Fails the future with a {@link TimeoutException} if it isn't done
+     * within {@code timeout}.
+     *
+     * @return this future.
+     */
+    @NonNull
+    public OrbFuture<T> withTimeout(long timeout, @NonNull final TimeUnit unit) {
+        final long millis = unit.toMillis(timeout);
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                fail(new TimeoutException("Timed out after " + millis + "ms"));
+            }
+        };
+        synchronized (this) {
+            if (done) {
+                return this;
+            }
+            if (this.timeout != null) timeoutHandler.removeCallbacks(this.timeout);
+            this.timeout = runnable;
+        }
+        timeoutHandler.postDelayed(runnable, millis);
+        return this;
+    }
+
+    /**
+     * Calls the callback once the future is done, on the thread that
+     * completes it (the main thread for command results), or right away if
+     * it is already done.
+     *
+     * @return this future.
+     */
+    @NonNull
+    public OrbFuture<T> addCallback(@NonNull Callback<T> callback) {
+        return addCallback(callback, null);
+    }
+
+    /**
+     * Calls the callback on the given executor once the future is done.
+     *
+     * @return this future.
+     */
+    @NonNull
+    public OrbFuture<T> addCallback(@NonNull final Callback<T> callback, @Nullable final Executor executor) {
+        final Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                T result;
+                Throwable error;
+                synchronized (OrbFuture.this) {
+                    result = OrbFuture.this.result;
+                    error = OrbFuture.this.error;
+                }
+                if (error != null) {
+                    callback.onFailure(error);
+                } else {
+                    callback.onSuccess(result);
+                }
+            }
+        };
+        Runnable task = executor == null ? runnable : new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(runnable);
+            }
+        };
+        synchronized (this) {
+            if (!done) {
+                callbacks.add(task);
+                return this;
+            }
+        }
+        task.run();
+        return this;
+    }
+
+    boolean complete(T result) {
+        return finish(result, null, false);
+    }
+
+    boolean fail(@NonNull Throwable error) {
+        return finish(null, error, false);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(null, new CancellationException("Cancelled"), true);
+    }
+
+    private boolean finish(T result, Throwable error, boolean cancelled) {
+        ArrayList<Runnable> callbacks;
+        Runnable timeout;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            done = true;
+            this.result = result;
+            this.error = error;
+            this.cancelled = cancelled;
+            callbacks = this.callbacks;
+            this.callbacks = null;
+            timeout = this.timeout;
+            this.timeout = null;
+            notifyAll();
+        }
+        if (timeout != null) timeoutHandler.removeCallbacks(timeout);
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        checkNotMainThread();
+        while (!done) {
+            wait();
+        }
+        return getResult();
+    }
+
+    @Override
+    public synchronized T get(long timeout, @NonNull TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        checkNotMainThread();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return getResult();
+    }
+
+    private void checkNotMainThread() {
+        Looper looper = Looper.myLooper();
+        if (!done && looper != null && looper == Looper.getMainLooper()) {
+            throw new IllegalStateException("get() would block the main thread, use addCallback() instead");
+        }
+    }
+
+    private T getResult() throws ExecutionException {
+        if (cancelled) {
+            throw (CancellationException) error;
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return result;
+    }
+}
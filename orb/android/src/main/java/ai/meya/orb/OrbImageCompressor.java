@@ -0,0 +1,319 @@
+package ai.meya.orb;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import ai.meya.orb.config.OrbConfig;
+import ai.meya.orb.config.OrbMediaUpload;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.exifinterface.media.ExifInterface;
+
+/**
+ * Downscales and re-encodes images before {@link Orb#uploadBlob} sends
+ * them, which turns 8-12 MB camera photos into a few hundred KB.
+ *
+ * Images are decoded with the largest power-of-two sample size that keeps
+ * their longer side at least {@link #maxDimension}, and scaled the rest of
+ * the way while decoding, so that no bitmap larger than the output is
+ * allocated, then turned upright according to their EXIF orientation.
+ * Re-encoding drops the EXIF data, including the location. Images run on a
+ * pool of {@link #POOL_SIZE} threads, which bounds how many bitmaps are in
+ * memory when several images are sent at once, and are uploaded from a
+ * temporary file. Images that can't be compressed, e.g. because memory ran
+ * out, are uploaded as they are.
+ */
+final class OrbImageCompressor {
+    private static final String TAG = "OrbImageCompressor";
+    static final int DEFAULT_MAX_DIMENSION = 2048;
+    static final int DEFAULT_QUALITY = 85;
+    static final int POOL_SIZE = 2;
+    private static final String CACHE_DIRECTORY = "orb-uploads";
+
+    // Temporary files left over by a process that was killed mid-upload are
+    // deleted before the first image of this process is compressed.
+    private static boolean leftoversDeleted = false;
+
+    private static final Executor pool = Executors.newFixedThreadPool(POOL_SIZE, new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    final int maxDimension;
+    final int quality;
+
+    OrbImageCompressor(int maxDimension, int quality) {
+        this.maxDimension = maxDimension;
+        this.quality = quality;
+    }
+
+    /**
+     * @return the compressor for the config's media upload settings, or null
+     * if images are uploaded as they are.
+     */
+    @Nullable
+    static OrbImageCompressor forConfig(@Nullable OrbConfig config) {
+        OrbMediaUpload mediaUpload = config != null ? config.mediaUpload : null;
+        int maxDimension = DEFAULT_MAX_DIMENSION;
+        int quality = DEFAULT_QUALITY;
+        if (mediaUpload != null && mediaUpload.imageMaxDimension != null) maxDimension = mediaUpload.imageMaxDimension;
+        if (mediaUpload != null && mediaUpload.imageQuality != null) quality = mediaUpload.imageQuality;
+        if (maxDimension <= 0) {
+            return null;
+        }
+        return new OrbImageCompressor(maxDimension, Math.max(0, Math.min(100, quality)));
+    }
+
+    /**
+     * @return the format to re-encode images of the type with, or null to
+     * upload them as they are, e.g. GIFs, which may be animated.
+     */
+    @Nullable
+    @SuppressWarnings("deprecation")
+    static Bitmap.CompressFormat getFormat(@Nullable String mimeType) {
+        if (mimeType == null) {
+            return null;
+        }
+        switch (mimeType) {
+            case "image/jpeg":
+            case "image/heic":
+            case "image/heif":
+                return Bitmap.CompressFormat.JPEG;
+            case "image/png":
+                return Bitmap.CompressFormat.PNG;
+            case "image/webp":
+                return Bitmap.CompressFormat.WEBP;
+            default:
+                return null;
+        }
+    }
+
+    static String getMimeType(Bitmap.CompressFormat format) {
+        switch (format) {
+            case PNG:
+                return "image/png";
+            case JPEG:
+                return "image/jpeg";
+            default:
+                return "image/webp";
+        }
+    }
+
+    /**
+     * Compresses the image on the pool, then uploads the compressed file, or
+     * the original image if it could not be decoded.
+     *
+     * @return a future with the blob's URL. Cancelling it aborts both steps.
+     */
+    OrbFuture<String> upload(
+            @NonNull final ContentResolver resolver,
+            @NonNull final Uri uri,
+            @NonNull final Bitmap.CompressFormat format,
+            @NonNull final File cacheDir,
+            @NonNull final OrbConnectionOptions options,
+            @Nullable final Orb.UploadProgressListener listener
+    ) {
+        final OrbFuture<String> future = new OrbFuture<>();
+        final OrbFuture<?>[] upload = new OrbFuture<?>[1];
+        future.addCallback(new OrbFuture.Callback<String>() {
+            @Override
+            public void onSuccess(@Nullable String result) {}
+
+            @Override
+            public void onFailure(@NonNull Throwable error) {
+                synchronized (upload) {
+                    if (future.isCancelled() && upload[0] != null) upload[0].cancel(true);
+                }
+            }
+        });
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (future.isDone()) {
+                    return;
+                }
+                File compressed = null;
+                try {
+                    compressed = compress(resolver, uri, format, cacheDir);
+                } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                    Log.w(TAG, "Could not compress '" + uri + "': " + e.getMessage());
+                }
+                final File file = compressed;
+                OrbFuture<String> started = file != null
+                        ? OrbBlobUpload.start(file, getMimeType(format), options, listener)
+                        : OrbBlobUpload.start(resolver, uri, options, listener);
+                started.addCallback(new OrbFuture.Callback<String>() {
+                    @Override
+                    public void onSuccess(@Nullable String result) {
+                        if (file != null) file.delete();
+                        future.complete(result);
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull Throwable error) {
+                        if (file != null) file.delete();
+                        future.fail(error);
+                    }
+                });
+                synchronized (upload) {
+                    upload[0] = started;
+                    if (future.isCancelled()) started.cancel(true);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @return a temporary file with the compressed image, to delete once
+     * uploaded, or null if the image could not be decoded.
+     */
+    @Nullable
+    @WorkerThread
+    File compress(
+            @NonNull ContentResolver resolver,
+            @NonNull Uri uri,
+            @NonNull Bitmap.CompressFormat format,
+            @NonNull File cacheDir
+    ) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(resolver, uri, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, maxDimension);
+        int sampled = Math.max(options.outWidth, options.outHeight) / options.inSampleSize;
+        if (sampled > maxDimension) {
+            options.inScaled = true;
+            options.inDensity = sampled;
+            options.inTargetDensity = maxDimension;
+        }
+        Bitmap bitmap = decode(resolver, uri, options);
+        if (bitmap == null) {
+            return null;
+        }
+        try {
+            bitmap = transform(bitmap, readExif(resolver, uri));
+            File directory = new File(cacheDir, CACHE_DIRECTORY);
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create '" + directory + "'");
+            }
+            deleteLeftovers(directory);
+            File file = File.createTempFile("upload", null, directory);
+            boolean written = false;
+            OutputStream output = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                written = bitmap.compress(format, quality, output);
+            } finally {
+                output.close();
+                if (!written) file.delete();
+            }
+            return written ? file : null;
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    private static synchronized void deleteLeftovers(File directory) {
+        if (leftoversDeleted) {
+            return;
+        }
+        leftoversDeleted = true;
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.delete()) Log.w(TAG, "Could not delete '" + file + "'");
+        }
+    }
+
+    /**
+     * @return the largest power of two that keeps the longer side of the
+     * sampled image at least {@code maxDimension}.
+     */
+    static int getSampleSize(int width, int height, int maxDimension) {
+        int longest = Math.max(width, height);
+        int sampleSize = 1;
+        while (longest / (sampleSize * 2) >= maxDimension) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Scales the bitmap to fit {@link #maxDimension} and turns it upright,
+     * recycling it if a new one was created.
+     */
+    private Bitmap transform(Bitmap bitmap, @Nullable ExifInterface exif) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        float scale = Math.min(1f, maxDimension / (float) Math.max(width, height));
+        int rotation = exif != null ? exif.getRotationDegrees() : 0;
+        boolean flipped = exif != null && exif.isFlipped();
+        if (scale == 1f && rotation == 0 && !flipped) {
+            return bitmap;
+        }
+        Matrix matrix = new Matrix();
+        matrix.postScale(scale, scale);
+        matrix.postRotate(rotation);
+        if (flipped) matrix.postScale(-1, 1);
+        Bitmap transformed = Bitmap.createBitmap(bitmap, 0, 0, width, height, matrix, true);
+        if (transformed != bitmap) bitmap.recycle();
+        return transformed;
+    }
+
+    @Nullable
+    private static Bitmap decode(ContentResolver resolver, Uri uri, BitmapFactory.Options options) throws IOException {
+        InputStream input = open(resolver, uri);
+        try {
+            return BitmapFactory.decodeStream(input, null, options);
+        } finally {
+            input.close();
+        }
+    }
+
+    @Nullable
+    private static ExifInterface readExif(ContentResolver resolver, Uri uri) {
+        try {
+            InputStream input = open(resolver, uri);
+            try {
+                return new ExifInterface(input);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static InputStream open(ContentResolver resolver, Uri uri) throws IOException {
+        InputStream input = resolver.openInputStream(uri);
+        if (input == null) {
+            throw new FileNotFoundException("Could not open '" + uri + "'");
+        }
+        return input;
+    }
+}
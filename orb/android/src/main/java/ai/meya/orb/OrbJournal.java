@@ -0,0 +1,236 @@
+package ai.meya.orb;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * On-device journal of the thread's events, so that the transcript can be
+ * shown right away when the app is reopened, before Orb has connected.
+ *
+ * Each thread gets its own append-only, memory-mapped file. Events are
+ * appended from the event callbacks on a background thread, and the journal
+ * is compacted down to its {@code maxEvents} latest events once it holds
+ * twice as many. Switching threads runs on the same thread, after the
+ * appends already queued.
+ */
+public class OrbJournal {
+    private static final String TAG = "OrbJournal";
+    private static final String PREFERENCES = "ai.meya.orb.journal";
+    private static final String THREAD_ID = "threadId";
+
+    public static final int DEFAULT_MAX_EVENTS = 1000;
+
+    private final File directory;
+    private final SharedPreferences preferences;
+    private final int maxEvents;
+    private final Executor executor = Executors.newSingleThreadExecutor();
+    private final OrbMsgPackWriter writer = new OrbMsgPackWriter();
+    private String threadId;
+    private OrbJournalFile file;
+
+    public OrbJournal(@NonNull Context context) {
+        this(context, DEFAULT_MAX_EVENTS);
+    }
+
+    public OrbJournal(@NonNull Context context, int maxEvents) {
+        this.directory = new File(context.getFilesDir(), "orb/journal");
+        this.preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        this.maxEvents = maxEvents;
+        this.threadId = preferences.getString(THREAD_ID, null);
+    }
+
+    /**
+     * @return the id of the thread last journaled, or null.
+     */
+    @Nullable
+    public synchronized String getThreadId() {
+        return threadId;
+    }
+
+    /**
+     * Reads the latest events of the journaled thread. This is safe to call
+     * on the main thread at startup, the events are decoded as they are
+     * accessed.
+     *
+     * @return up to {@code limit} events, newest first.
+     */
+    @NonNull
+    public synchronized List<OrbEvent> readLast(int limit) {
+        OrbJournalFile file = getFile();
+        return file != null ? file.readLast(limit) : Collections.<OrbEvent>emptyList();
+    }
+
+    /**
+     * @return the id of the latest journaled event, or null.
+     */
+    @Nullable
+    public synchronized String getLastEventId() {
+        OrbJournalFile file = getFile();
+        return file != null ? file.getLastEventId() : null;
+    }
+
+    public synchronized int size() {
+        OrbJournalFile file = getFile();
+        return file != null ? file.size() : 0;
+    }
+
+    /**
+     * Deletes the journal of the current thread, e.g. when the user logs out.
+     */
+    public synchronized void clear() {
+        if (threadId == null) {
+            return;
+        }
+        try {
+            OrbJournalFile file = getFile();
+            if (file != null) file.delete();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not delete journal: " + e.getMessage());
+        }
+        close();
+        threadId = null;
+        preferences.edit().remove(THREAD_ID).apply();
+    }
+
+    /**
+     * Switches the journal to the given thread, once the events already
+     * queued are appended to the previous one.
+     */
+    void open(@Nullable final String threadId) {
+        if (threadId == null) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (OrbJournal.this) {
+                    if (threadId.equals(OrbJournal.this.threadId)) {
+                        return;
+                    }
+                    close();
+                    OrbJournal.this.threadId = threadId;
+                    preferences.edit().putString(THREAD_ID, threadId).apply();
+                }
+            }
+        });
+    }
+
+    /**
+     * Appends events given newest first, skipping events already journaled
+     * and events older than the latest journaled one, e.g. events compacted
+     * out of the journal that come back with the next full event stream.
+     */
+    void appendAll(@NonNull final List<Map<String, Object>> eventStream) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (OrbJournal.this) {
+                    for (int i = eventStream.size() - 1; i >= 0; i--) {
+                        write(eventStream.get(i));
+                    }
+                }
+                compactIfNeeded();
+            }
+        });
+    }
+
+    void append(@NonNull Map<String, Object> event) {
+        appendAll(Collections.singletonList(event));
+    }
+
+    private void write(Map<String, Object> event) {
+        OrbJournalFile file = getFile();
+        if (file == null) {
+            return;
+        }
+        OrbEvent orbEvent = OrbEvent.of(event);
+        String id = orbEvent.getId();
+        if (id != null && (file.contains(id) || OrbEventDelta.compareIds(id, file.getLastEventId()) < 0)) {
+            return;
+        }
+        writer.reset();
+        orbEvent.writeTo(writer);
+        try {
+            file.append(id, writer.buffer(), writer.size());
+        } catch (IOException e) {
+            Log.e(TAG, "Could not append to journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs on the executor. The compacted copy is written and synced to disk
+     * without holding the lock, so that reads at startup don't wait for it.
+     * Only the executor appends, so the journal can only have been cleared
+     * in the meantime.
+     */
+    private void compactIfNeeded() {
+        OrbJournalFile file;
+        byte[] records;
+        synchronized (this) {
+            file = this.file;
+            if (file == null || file.size() <= maxEvents * 2) {
+                return;
+            }
+            records = file.copyLast(maxEvents);
+        }
+        Log.d(TAG, "Compacting journal to " + maxEvents + " events");
+        File compacted;
+        try {
+            compacted = file.writeCompacted(records);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not compact journal: " + e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            if (this.file != file) {
+                compacted.delete();
+                return;
+            }
+            try {
+                file.replace(compacted);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not compact journal: " + e.getMessage());
+                close();
+            }
+        }
+    }
+
+    private OrbJournalFile getFile() {
+        if (file != null || threadId == null) {
+            return file;
+        }
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create " + directory);
+            }
+            file = new OrbJournalFile(new File(directory, threadId.replaceAll("[^A-Za-z0-9_-]", "_")));
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open journal: " + e.getMessage());
+        }
+        return file;
+    }
+
+    private void close() {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not close journal: " + e.getMessage());
+        }
+        file = null;
+    }
+}
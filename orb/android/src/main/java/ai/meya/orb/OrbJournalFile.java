@@ -0,0 +1,201 @@
+package ai.meya.orb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Append-only, memory-mapped file of msgpack encoded events.
+ *
+ * The file starts with a header holding a magic number and the end of the
+ * last complete record, followed by the records, each prefixed with its
+ * length. A record is written before the header's end is moved past it, so a
+ * process killed mid-write leaves the journal as it was before the append.
+ */
+final class OrbJournalFile {
+    private static final int MAGIC = 0x4f524a31;
+    private static final int HEADER_SIZE = 8;
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private final File file;
+    private RandomAccessFile randomAccessFile;
+    private MappedByteBuffer buffer;
+    private int end;
+    private int[] offsets = new int[64];
+    private int count = 0;
+    private final HashSet<String> ids = new HashSet<>();
+    private String lastEventId;
+
+    OrbJournalFile(File file) throws IOException {
+        this.file = file;
+        open();
+    }
+
+    int size() {
+        return count;
+    }
+
+    String getLastEventId() {
+        return lastEventId;
+    }
+
+    boolean contains(String id) {
+        return ids.contains(id);
+    }
+
+    /**
+     * Appends an encoded event.
+     */
+    void append(String id, byte[] payload, int length) throws IOException {
+        ensureCapacity(end + 4 + length);
+        ByteBuffer record = buffer.duplicate();
+        record.position(end);
+        record.putInt(length);
+        record.put(payload, 0, length);
+        index(end, id);
+        end += 4 + length;
+        buffer.putInt(4, end);
+    }
+
+    /**
+     * @return the last {@code limit} events, newest first.
+     */
+    List<OrbEvent> readLast(int limit) {
+        int size = Math.min(limit, count);
+        ArrayList<OrbEvent> events = new ArrayList<>(size);
+        for (int i = count - 1; i >= count - size; i--) {
+            events.add(new OrbEvent(readRecord(offsets[i]), 0));
+        }
+        return events;
+    }
+
+    /**
+     * @return the records of the last {@code keep} events, to compact the
+     * file down to with {@link #writeCompacted} and {@link #replace}.
+     */
+    byte[] copyLast(int keep) {
+        int start = offsets[Math.max(0, count - keep)];
+        byte[] records = new byte[end - start];
+        ByteBuffer source = buffer.duplicate();
+        source.position(start);
+        source.get(records);
+        return records;
+    }
+
+    /**
+     * Writes the records to a new file next to this one, without touching
+     * this one.
+     */
+    File writeCompacted(byte[] records) throws IOException {
+        File compacted = new File(file.getPath() + ".tmp");
+        RandomAccessFile output = new RandomAccessFile(compacted, "rw");
+        try {
+            output.setLength(0);
+            output.writeInt(MAGIC);
+            output.writeInt(HEADER_SIZE + records.length);
+            output.write(records);
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        return compacted;
+    }
+
+    /**
+     * Replaces the file with the compacted one.
+     */
+    void replace(File compacted) throws IOException {
+        close();
+        if (!compacted.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+        open();
+    }
+
+    void close() throws IOException {
+        if (randomAccessFile != null) {
+            try {
+                buffer.force();
+            } finally {
+                randomAccessFile.close();
+                randomAccessFile = null;
+                buffer = null;
+            }
+        }
+    }
+
+    void delete() throws IOException {
+        close();
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not delete " + file);
+        }
+    }
+
+    private void open() throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        map((int) Math.max(randomAccessFile.length(), INITIAL_CAPACITY));
+        count = 0;
+        ids.clear();
+        lastEventId = null;
+        if (buffer.getInt(0) != MAGIC) {
+            buffer.putInt(0, MAGIC);
+            end = HEADER_SIZE;
+            buffer.putInt(4, end);
+            return;
+        }
+        int limit = Math.min(buffer.getInt(4), buffer.capacity());
+        end = HEADER_SIZE;
+        while (end + 4 <= limit) {
+            int length = buffer.getInt(end);
+            if (length <= 0 || end + 4 + length > limit) {
+                break;
+            }
+            index(end, new OrbEvent(readRecord(end), 0).getId());
+            end += 4 + length;
+        }
+        // Drop anything past the last complete record.
+        buffer.putInt(4, end);
+    }
+
+    private void map(int capacity) throws IOException {
+        buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private void ensureCapacity(int capacity) throws IOException {
+        if (capacity <= buffer.capacity()) {
+            return;
+        }
+        int newCapacity = buffer.capacity();
+        while (newCapacity < capacity) {
+            newCapacity *= 2;
+        }
+        buffer.force();
+        map(newCapacity);
+    }
+
+    private void index(int offset, String id) {
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        offsets[count++] = offset;
+        if (id != null) {
+            ids.add(id);
+            lastEventId = id;
+        }
+    }
+
+    private byte[] readRecord(int offset) {
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset);
+        byte[] payload = new byte[record.getInt()];
+        record.get(payload);
+        return payload;
+    }
+}
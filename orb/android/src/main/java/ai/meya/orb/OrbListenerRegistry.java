@@ -0,0 +1,95 @@
+package ai.meya.orb;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import androidx.annotation.Nullable;
+
+/**
+ * The listeners registered for one callback type. Iterating is safe while
+ * listeners are added or removed, e.g. from within a callback.
+ */
+final class OrbListenerRegistry<T> implements Iterable<T> {
+    private final CopyOnWriteArrayList<T> listeners = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<T> deltaListeners = new CopyOnWriteArrayList<>();
+    // The event types of the listeners that only want some of them.
+    private final ConcurrentHashMap<T, Set<String>> types = new ConcurrentHashMap<>();
+
+    /**
+     * @return false if the listener was already registered.
+     */
+    boolean add(T listener, boolean delta) {
+        return add(listener, delta, null);
+    }
+
+    /**
+     * @param types the event types the listener wants, null for all of them.
+     * @return false if the listener was already registered.
+     */
+    boolean add(T listener, boolean delta, @Nullable Set<String> types) {
+        if (!listeners.addIfAbsent(listener)) {
+            return false;
+        }
+        if (delta) deltaListeners.add(listener);
+        if (types != null) this.types.put(listener, Collections.unmodifiableSet(new HashSet<>(types)));
+        return true;
+    }
+
+    /**
+     * @return false if the listener wasn't registered.
+     */
+    boolean remove(T listener) {
+        deltaListeners.remove(listener);
+        types.remove(listener);
+        return listeners.remove(listener);
+    }
+
+    boolean isEmpty() {
+        return listeners.isEmpty();
+    }
+
+    int size() {
+        return listeners.size();
+    }
+
+    /**
+     * @return true if any of the listeners asked for delta delivery.
+     */
+    boolean isDelta() {
+        return !deltaListeners.isEmpty();
+    }
+
+    /**
+     * @return the union of the event types the listeners want, or null if
+     * any of them wants every type.
+     */
+    @Nullable
+    Set<String> getTypes() {
+        HashSet<String> union = new HashSet<>();
+        for (T listener : listeners) {
+            Set<String> listenerTypes = types.get(listener);
+            if (listenerTypes == null) {
+                return null;
+            }
+            union.addAll(listenerTypes);
+        }
+        return union;
+    }
+
+    /**
+     * @return true if the listener wants events of the type.
+     */
+    boolean accepts(T listener, @Nullable String type) {
+        Set<String> listenerTypes = types.get(listener);
+        return listenerTypes == null || listenerTypes.contains(type);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return listeners.iterator();
+    }
+}
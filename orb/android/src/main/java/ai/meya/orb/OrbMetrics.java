@@ -0,0 +1,129 @@
+package ai.meya.orb;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Latency and size metrics of the Orb bridge, kept in {@link OrbHistogram}s.
+ *
+ * Durations are recorded in microseconds. The recorded metrics are:
+ * <ul>
+ *     <li>{@code channel.<method>}: platform channel round trip of outgoing calls</li>
+ *     <li>{@code inbound.bytes.<method>}: size of the binary frames received</li>
+ *     <li>{@code inbound.events.<callback>}: length of the event streams received</li>
+ *     <li>{@code compacted.<callback>}: events compacted out of the event streams received, see {@link OrbEventCompaction}</li>
+ *     <li>{@code decode.frame.<method>}: time to index a binary frame</li>
+ *     <li>{@code decode.<callback>}: time to extract or rebuild an event stream</li>
+ *     <li>{@code dispatch.<callback>}: time spent in the listeners of a callback</li>
+ *     <li>{@code startup.ready}: from {@link Orb#initialize()} to ready</li>
+ *     <li>{@code startup.connected}: from {@link Orb#connect(OrbConnectionOptions)} to connected</li>
+ * </ul>
+ */
+public class OrbMetrics {
+    public interface Exporter {
+        void export(Map<String, OrbHistogram.Snapshot> snapshot);
+    }
+
+    private final ConcurrentHashMap<String, OrbHistogram> histograms = new ConcurrentHashMap<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private volatile boolean enabled = true;
+    private Exporter exporter;
+    private long exportInterval;
+    private final Runnable export = new Runnable() {
+        @Override
+        public void run() {
+            export();
+        }
+    };
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Disabled metrics aren't recorded, making the instrumentation a single
+     * volatile read.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void record(@NonNull String name, long value) {
+        if (!enabled) {
+            return;
+        }
+        OrbHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            OrbHistogram created = new OrbHistogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) histogram = created;
+        }
+        histogram.record(value);
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos}, a value returned by
+     * {@link System#nanoTime()}, in microseconds.
+     */
+    public void recordSince(@NonNull String name, long startNanos) {
+        if (enabled) record(name, (System.nanoTime() - startNanos) / 1000);
+    }
+
+    @Nullable
+    public OrbHistogram get(@NonNull String name) {
+        return histograms.get(name);
+    }
+
+    /**
+     * @return a snapshot of all histograms, sorted by name.
+     */
+    @NonNull
+    public Map<String, OrbHistogram.Snapshot> snapshot() {
+        TreeMap<String, OrbHistogram.Snapshot> snapshot = new TreeMap<>();
+        for (Map.Entry<String, OrbHistogram> entry : histograms.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshot;
+    }
+
+    public void reset() {
+        for (OrbHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Hands a snapshot to the exporter every {@code interval} milliseconds,
+     * on the main thread. A null exporter stops exporting.
+     */
+    public synchronized void setExporter(@Nullable Exporter exporter, long interval) {
+        this.exporter = exporter;
+        this.exportInterval = interval;
+        handler.removeCallbacks(export);
+        if (exporter != null && interval > 0) {
+            handler.postDelayed(export, interval);
+        }
+    }
+
+    /**
+     * Hands a snapshot to the exporter right away.
+     */
+    public void export() {
+        Exporter exporter;
+        long interval;
+        synchronized (this) {
+            exporter = this.exporter;
+            interval = this.exportInterval;
+            handler.removeCallbacks(export);
+            if (exporter != null && interval > 0) handler.postDelayed(export, interval);
+        }
+        if (exporter != null) exporter.export(snapshot());
+    }
+}
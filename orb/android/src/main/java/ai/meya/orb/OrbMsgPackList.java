@@ -0,0 +1,40 @@
+package ai.meya.orb;
+
+import java.util.AbstractList;
+
+/**
+ * Read-only list of the events of a msgpack array. Creating it only records
+ * where each event starts, events are {@link OrbEvent} views that decode
+ * their fields on first access.
+ */
+final class OrbMsgPackList extends AbstractList<OrbEvent> {
+    private final byte[] bytes;
+    private final int[] offsets;
+    private final OrbEvent[] events;
+
+    OrbMsgPackList(OrbMsgPackReader reader, int size) {
+        this.bytes = reader.bytes();
+        this.offsets = new int[size];
+        this.events = new OrbEvent[size];
+        for (int i = 0; i < size; i++) {
+            offsets[i] = reader.position();
+            reader.skip();
+        }
+    }
+
+    @Override
+    public synchronized OrbEvent get(int index) {
+        if (index < 0 || index >= offsets.length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + offsets.length);
+        }
+        if (events[index] == null) {
+            events[index] = new OrbEvent(bytes, offsets[index]);
+        }
+        return events[index];
+    }
+
+    @Override
+    public int size() {
+        return offsets.length;
+    }
+}
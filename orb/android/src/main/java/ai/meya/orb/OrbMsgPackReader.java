@@ -0,0 +1,422 @@
+package ai.meya.orb;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal msgpack decoder for the frames sent over the binary "orb/binary"
+ * channel. Values are decoded into the same types the StandardMessageCodec
+ * produces, so the existing map-based listeners keep working.
+ */
+final class OrbMsgPackReader {
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] bytes;
+    private int position;
+
+    OrbMsgPackReader(byte[] bytes) {
+        this(bytes, 0);
+    }
+
+    OrbMsgPackReader(byte[] bytes, int position) {
+        this.bytes = bytes;
+        this.position = position;
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    int position() {
+        return position;
+    }
+
+    void seek(int position) {
+        this.position = position;
+    }
+
+    /**
+     * Decodes the next value, including all nested values.
+     */
+    Object read() {
+        int type = bytes[position++] & 0xff;
+        if (type <= 0x7f) {
+            return type;
+        } else if (type >= 0xe0) {
+            return (int) (byte) type;
+        } else if (type >= 0x80 && type <= 0x8f) {
+            return readMap(type & 0x0f);
+        } else if (type >= 0x90 && type <= 0x9f) {
+            return readArray(type & 0x0f);
+        } else if (type >= 0xa0 && type <= 0xbf) {
+            return readUtf8(type & 0x1f);
+        }
+        switch (type) {
+            case 0xc0:
+                return null;
+            case 0xc2:
+                return false;
+            case 0xc3:
+                return true;
+            case 0xc4:
+                return readBytes(readUint8());
+            case 0xc5:
+                return readBytes(readUint16());
+            case 0xc6:
+                return readBytes(readLength32());
+            case 0xc7:
+            case 0xc8:
+            case 0xc9:
+            case 0xd4:
+            case 0xd5:
+            case 0xd6:
+            case 0xd7:
+            case 0xd8:
+                // Extension types aren't used by the Orb protocol.
+                position--;
+                skip();
+                return null;
+            case 0xca:
+                return (double) Float.intBitsToFloat((int) readBigEndian(4));
+            case 0xcb:
+                return Double.longBitsToDouble(readBigEndian(8));
+            case 0xcc:
+                return readUint8();
+            case 0xcd:
+                return readUint16();
+            case 0xce:
+                return toInteger(readBigEndian(4));
+            case 0xcf:
+                return readBigEndian(8);
+            case 0xd0:
+                return (int) bytes[position++];
+            case 0xd1:
+                return (int) (short) readBigEndian(2);
+            case 0xd2:
+                return (int) readBigEndian(4);
+            case 0xd3:
+                return toInteger(readBigEndian(8));
+            case 0xd9:
+                return readUtf8(readUint8());
+            case 0xda:
+                return readUtf8(readUint16());
+            case 0xdb:
+                return readUtf8(readLength32());
+            case 0xdc:
+                return readArray(readUint16());
+            case 0xdd:
+                return readArray(readLength32());
+            case 0xde:
+                return readMap(readUint16());
+            case 0xdf:
+                return readMap(readLength32());
+            default:
+                throw new IllegalStateException("Unsupported msgpack type 0x" + Integer.toHexString(type));
+        }
+    }
+
+    /**
+     * Decodes the map at the current position, including all nested values.
+     */
+    Map<String, Object> readMap() {
+        return readMap(readMapHeader());
+    }
+
+    /**
+     * Decodes the map of arguments of a frame. Event lists in the arguments
+     * are only indexed and events are returned as {@link OrbEvent} views
+     * that decode their fields on first access.
+     */
+    Map<String, Object> readEventArguments() {
+        int size = readMapHeader();
+        HashMap<String, Object> arguments = new HashMap<>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            String key = readString();
+            if (isArray()) {
+                int start = position;
+                int length = readArrayHeader();
+                if (length > 0 && !isMap()) {
+                    position = start;
+                    arguments.put(key, read());
+                } else {
+                    arguments.put(key, new OrbMsgPackList(this, length));
+                }
+            } else if (isMap()) {
+                arguments.put(key, new OrbEvent(bytes, position));
+                skip();
+            } else {
+                arguments.put(key, read());
+            }
+        }
+        return arguments;
+    }
+
+    /**
+     * @return the number of entries of the map at the current position.
+     */
+    int readMapHeader() {
+        int type = bytes[position++] & 0xff;
+        if (type >= 0x80 && type <= 0x8f) {
+            return type & 0x0f;
+        } else if (type == 0xde) {
+            return readUint16();
+        } else if (type == 0xdf) {
+            return readLength32();
+        }
+        throw new IllegalStateException("Expected msgpack map, found 0x" + Integer.toHexString(type));
+    }
+
+    /**
+     * @return the number of elements of the array at the current position.
+     */
+    int readArrayHeader() {
+        int type = bytes[position++] & 0xff;
+        if (type >= 0x90 && type <= 0x9f) {
+            return type & 0x0f;
+        } else if (type == 0xdc) {
+            return readUint16();
+        } else if (type == 0xdd) {
+            return readLength32();
+        }
+        throw new IllegalStateException("Expected msgpack array, found 0x" + Integer.toHexString(type));
+    }
+
+    /**
+     * @return the string at the current position, or null for nil.
+     */
+    String readString() {
+        int type = bytes[position] & 0xff;
+        if (type == 0xc0) {
+            position++;
+            return null;
+        }
+        Object value = read();
+        if (!(value instanceof String)) {
+            throw new IllegalStateException("Expected msgpack string");
+        }
+        return (String) value;
+    }
+
+    boolean isMap() {
+        int type = bytes[position] & 0xff;
+        return (type >= 0x80 && type <= 0x8f) || type == 0xde || type == 0xdf;
+    }
+
+    boolean isArray() {
+        int type = bytes[position] & 0xff;
+        return (type >= 0x90 && type <= 0x9f) || type == 0xdc || type == 0xdd;
+    }
+
+    /**
+     * Moves to the value of the given key in the map at the current
+     * position, comparing the encoded keys without decoding them.
+     *
+     * @return false if the map doesn't contain the key.
+     */
+    boolean seekMapValue(byte[] key) {
+        int size = readMapHeader();
+        for (int i = 0; i < size; i++) {
+            if (matchString(key)) {
+                return true;
+            }
+            skip();
+        }
+        return false;
+    }
+
+    /**
+     * Skips the next value without allocating anything for it.
+     */
+    void skip() {
+        int type = bytes[position++] & 0xff;
+        if (type <= 0x7f || type >= 0xe0 || type == 0xc0 || type == 0xc2 || type == 0xc3) {
+            return;
+        } else if (type >= 0x80 && type <= 0x8f) {
+            skipValues((type & 0x0f) * 2);
+        } else if (type >= 0x90 && type <= 0x9f) {
+            skipValues(type & 0x0f);
+        } else if (type >= 0xa0 && type <= 0xbf) {
+            position += type & 0x1f;
+        } else {
+            switch (type) {
+                case 0xc4:
+                case 0xd9:
+                    position += readUint8();
+                    break;
+                case 0xc5:
+                case 0xda:
+                    position += readUint16();
+                    break;
+                case 0xc6:
+                case 0xdb:
+                    position += readLength32();
+                    break;
+                case 0xc7:
+                    position += readUint8() + 1;
+                    break;
+                case 0xc8:
+                    position += readUint16() + 1;
+                    break;
+                case 0xc9:
+                    position += readLength32() + 1;
+                    break;
+                case 0xca:
+                    position += 4;
+                    break;
+                case 0xcb:
+                    position += 8;
+                    break;
+                case 0xcc:
+                case 0xd0:
+                    position += 1;
+                    break;
+                case 0xcd:
+                case 0xd1:
+                    position += 2;
+                    break;
+                case 0xce:
+                case 0xd2:
+                    position += 4;
+                    break;
+                case 0xcf:
+                case 0xd3:
+                    position += 8;
+                    break;
+                case 0xd4:
+                    position += 2;
+                    break;
+                case 0xd5:
+                    position += 3;
+                    break;
+                case 0xd6:
+                    position += 5;
+                    break;
+                case 0xd7:
+                    position += 9;
+                    break;
+                case 0xd8:
+                    position += 17;
+                    break;
+                case 0xdc:
+                    skipValues(readUint16());
+                    break;
+                case 0xdd:
+                    skipValues(readLength32());
+                    break;
+                case 0xde:
+                    skipValues(readUint16() * 2);
+                    break;
+                case 0xdf:
+                    skipValues(readLength32() * 2);
+                    break;
+                default:
+                    throw new IllegalStateException("Unsupported msgpack type 0x" + Integer.toHexString(type));
+            }
+        }
+    }
+
+    private void skipValues(int count) {
+        for (int i = 0; i < count; i++) {
+            skip();
+        }
+    }
+
+    /**
+     * Consumes the string at the current position.
+     *
+     * @return true if it is equal to the given UTF-8 encoded string.
+     */
+    private boolean matchString(byte[] value) {
+        int type = bytes[position] & 0xff;
+        int length;
+        int start;
+        if (type >= 0xa0 && type <= 0xbf) {
+            length = type & 0x1f;
+            start = position + 1;
+        } else if (type == 0xd9) {
+            length = bytes[position + 1] & 0xff;
+            start = position + 2;
+        } else if (type == 0xda) {
+            length = ((bytes[position + 1] & 0xff) << 8) | (bytes[position + 2] & 0xff);
+            start = position + 3;
+        } else {
+            skip();
+            return false;
+        }
+        position = start + length;
+        if (length != value.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[start + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> readMap(int size) {
+        HashMap<Object, Object> map = new HashMap<>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            Object key = read();
+            map.put(key, read());
+        }
+        return (Map<String, Object>) (Map<?, ?>) map;
+    }
+
+    private List<Object> readArray(int size) {
+        ArrayList<Object> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(read());
+        }
+        return list;
+    }
+
+    private String readUtf8(int length) {
+        String value = new String(bytes, position, length, UTF_8);
+        position += length;
+        return value;
+    }
+
+    private byte[] readBytes(int length) {
+        byte[] value = new byte[length];
+        System.arraycopy(bytes, position, value, 0, length);
+        position += length;
+        return value;
+    }
+
+    private int readUint8() {
+        return bytes[position++] & 0xff;
+    }
+
+    private int readUint16() {
+        return (int) readBigEndian(2);
+    }
+
+    private int readLength32() {
+        long length = readBigEndian(4);
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("msgpack length too large: " + length);
+        }
+        return (int) length;
+    }
+
+    private long readBigEndian(int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (bytes[position++] & 0xff);
+        }
+        return value;
+    }
+
+    private static Object toInteger(long value) {
+        if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            return (int) value;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,223 @@
+package ai.meya.orb;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal msgpack encoder, the counterpart of {@link OrbMsgPackReader}. It
+ * encodes the types the StandardMessageCodec accepts into a growable
+ * buffer. Typed arrays are encoded as arrays, and BigIntegers as integers,
+ * or as their decimal string if they don't fit 64 bits.
+ */
+final class OrbMsgPackWriter {
+    private byte[] bytes;
+    private int size = 0;
+
+    OrbMsgPackWriter() {
+        this(256);
+    }
+
+    OrbMsgPackWriter(int capacity) {
+        bytes = new byte[Math.max(16, capacity)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void reset() {
+        size = 0;
+    }
+
+    byte[] buffer() {
+        return bytes;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    /**
+     * Encodes a value, including all nested values.
+     */
+    OrbMsgPackWriter write(Object value) {
+        if (value == null) {
+            writeByte(0xc0);
+        } else if (value instanceof Boolean) {
+            writeByte((Boolean) value ? 0xc3 : 0xc2);
+        } else if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            writeLong(((Number) value).longValue());
+        } else if (value instanceof Float || value instanceof Double) {
+            writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof BigInteger) {
+            BigInteger integer = (BigInteger) value;
+            if (integer.bitLength() < 64) {
+                writeLong(integer.longValue());
+            } else {
+                writeString(integer.toString());
+            }
+        } else if (value instanceof String) {
+            writeString((String) value);
+        } else if (value instanceof byte[]) {
+            writeBinary((byte[]) value);
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            writeMapHeader(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                write(entry.getKey());
+                write(entry.getValue());
+            }
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            writeArrayHeader(list.size());
+            for (int i = 0; i < list.size(); i++) {
+                write(list.get(i));
+            }
+        } else if (value instanceof int[]) {
+            int[] array = (int[]) value;
+            writeArrayHeader(array.length);
+            for (int element : array) {
+                writeLong(element);
+            }
+        } else if (value instanceof long[]) {
+            long[] array = (long[]) value;
+            writeArrayHeader(array.length);
+            for (long element : array) {
+                writeLong(element);
+            }
+        } else if (value instanceof float[]) {
+            float[] array = (float[]) value;
+            writeArrayHeader(array.length);
+            for (float element : array) {
+                writeDouble(element);
+            }
+        } else if (value instanceof double[]) {
+            double[] array = (double[]) value;
+            writeArrayHeader(array.length);
+            for (double element : array) {
+                writeDouble(element);
+            }
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            writeArrayHeader(array.length);
+            for (Object element : array) {
+                write(element);
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported value type " + value.getClass().getName());
+        }
+        return this;
+    }
+
+    void writeMapHeader(int size) {
+        if (size <= 0x0f) {
+            writeByte(0x80 | size);
+        } else if (size <= 0xffff) {
+            writeByte(0xde);
+            writeBigEndian(size, 2);
+        } else {
+            writeByte(0xdf);
+            writeBigEndian(size, 4);
+        }
+    }
+
+    void writeArrayHeader(int size) {
+        if (size <= 0x0f) {
+            writeByte(0x90 | size);
+        } else if (size <= 0xffff) {
+            writeByte(0xdc);
+            writeBigEndian(size, 2);
+        } else {
+            writeByte(0xdd);
+            writeBigEndian(size, 4);
+        }
+    }
+
+    void writeString(String value) {
+        byte[] utf8 = value.getBytes(OrbMsgPackReader.UTF_8);
+        int length = utf8.length;
+        if (length <= 0x1f) {
+            writeByte(0xa0 | length);
+        } else if (length <= 0xff) {
+            writeByte(0xd9);
+            writeByte(length);
+        } else if (length <= 0xffff) {
+            writeByte(0xda);
+            writeBigEndian(length, 2);
+        } else {
+            writeByte(0xdb);
+            writeBigEndian(length, 4);
+        }
+        writeRaw(utf8, 0, length);
+    }
+
+    /**
+     * Copies already encoded msgpack as is.
+     */
+    void writeRaw(byte[] value, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(value, offset, bytes, size, length);
+        size += length;
+    }
+
+    private void writeBinary(byte[] value) {
+        int length = value.length;
+        if (length <= 0xff) {
+            writeByte(0xc4);
+            writeByte(length);
+        } else if (length <= 0xffff) {
+            writeByte(0xc5);
+            writeBigEndian(length, 2);
+        } else {
+            writeByte(0xc6);
+            writeBigEndian(length, 4);
+        }
+        writeRaw(value, 0, length);
+    }
+
+    private void writeLong(long value) {
+        if (value >= 0 && value <= 0x7f) {
+            writeByte((int) value);
+        } else if (value < 0 && value >= -32) {
+            writeByte((int) value & 0xff);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            writeByte(0xd0);
+            writeBigEndian(value, 1);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            writeByte(0xd1);
+            writeBigEndian(value, 2);
+        } else if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            writeByte(0xd2);
+            writeBigEndian(value, 4);
+        } else {
+            writeByte(0xd3);
+            writeBigEndian(value, 8);
+        }
+    }
+
+    private void writeDouble(double value) {
+        writeByte(0xcb);
+        writeBigEndian(Double.doubleToLongBits(value), 8);
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        bytes[size++] = (byte) value;
+    }
+
+    private void writeBigEndian(long value, int length) {
+        ensureCapacity(length);
+        for (int i = length - 1; i >= 0; i--) {
+            bytes[size++] = (byte) (value >>> (i * 8));
+        }
+    }
+
+    private void ensureCapacity(int length) {
+        if (size + length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package ai.meya.orb;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Durable queue of the events published through {@link Orb}.
+ *
+ * Each event gets an idempotency key, which is sent as the request id of the
+ * publish request, and stays in the outbox until the Dart side has written
+ * it to a connected socket. The outbox is saved to disk on a background
+ * thread after every change, so events published while offline survive the
+ * app being killed.
+ */
+public class OrbOutbox {
+    private static final String TAG = "OrbOutbox";
+
+    public static class Entry {
+        public final String requestId;
+        public final Map<String, Object> event;
+        public final long createdAt;
+        // The event as msgpack, so that saving doesn't encode it again.
+        final byte[] encodedEvent;
+
+        Entry(String requestId, Map<String, Object> event, long createdAt) {
+            this.requestId = requestId;
+            this.event = event;
+            this.createdAt = createdAt;
+            this.encodedEvent = new OrbMsgPackWriter().write(event).toByteArray();
+        }
+    }
+
+    private final File file;
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private final Executor executor = Executors.newSingleThreadExecutor();
+    private boolean saveScheduled = false;
+
+    public OrbOutbox(@NonNull Context context) {
+        this.file = new File(context.getFilesDir(), "orb/outbox");
+        load();
+    }
+
+    /**
+     * @return the number of events waiting to be published.
+     */
+    public synchronized int getDepth() {
+        return entries.size();
+    }
+
+    /**
+     * @return how long the oldest waiting event has been in the outbox, in
+     * milliseconds, or 0 if the outbox is empty.
+     */
+    public synchronized long getOldestAge() {
+        Entry oldest = entries.peekFirst();
+        return oldest != null ? Math.max(0, System.currentTimeMillis() - oldest.createdAt) : 0;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        save();
+    }
+
+    /**
+     * Queues events and returns their idempotency keys. The events are
+     * encoded right away, on the caller's thread, and saved together.
+     *
+     * @throws IllegalArgumentException if an event holds a value that can't
+     * be saved, in which case none of the events are queued.
+     */
+    List<String> addAll(@NonNull List<Map<String, Object>> events) {
+        long now = System.currentTimeMillis();
+        ArrayList<Entry> added = new ArrayList<>(events.size());
+        ArrayList<String> requestIds = new ArrayList<>(events.size());
+        for (Map<String, Object> event : events) {
+            String requestId = UUID.randomUUID().toString().replace("-", "");
+            added.add(new Entry(requestId, event, now));
+            requestIds.add(requestId);
+        }
+        synchronized (this) {
+            entries.addAll(added);
+            save();
+        }
+        return requestIds;
+    }
+
+    /**
+     * @return up to {@code limit} of the oldest entries, without removing
+     * them.
+     */
+    synchronized List<Entry> peek(int limit) {
+        ArrayList<Entry> batch = new ArrayList<>(Math.min(limit, entries.size()));
+        for (Entry entry : entries) {
+            if (batch.size() == limit) break;
+            batch.add(entry);
+        }
+        return batch;
+    }
+
+    /**
+     * Removes entries once they've been published.
+     */
+    synchronized void remove(@NonNull List<Entry> published) {
+        for (Entry entry : published) {
+            entries.remove(entry);
+        }
+        save();
+    }
+
+    private void save() {
+        if (saveScheduled) {
+            return;
+        }
+        saveScheduled = true;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    byte[] bytes;
+                    synchronized (OrbOutbox.this) {
+                        saveScheduled = false;
+                        bytes = encode();
+                    }
+                    write(bytes);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Could not save outbox: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    private byte[] encode() {
+        OrbMsgPackWriter writer = new OrbMsgPackWriter();
+        writer.writeArrayHeader(entries.size());
+        for (Entry entry : entries) {
+            writer.writeMapHeader(3);
+            writer.writeString("requestId");
+            writer.writeString(entry.requestId);
+            writer.writeString("event");
+            writer.writeRaw(entry.encodedEvent, 0, entry.encodedEvent.length);
+            writer.writeString("createdAt");
+            writer.write(entry.createdAt);
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Replaces the outbox file, through a temporary file so that a crash
+     * mid-write keeps the previous version.
+     */
+    private void write(byte[] bytes) {
+        File directory = file.getParentFile();
+        File temporary = new File(file.getPath() + ".tmp");
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create " + directory);
+            }
+            FileOutputStream output = new FileOutputStream(temporary);
+            try {
+                output.write(bytes);
+                output.getFD().sync();
+            } finally {
+                output.close();
+            }
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not save outbox: " + e.getMessage());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            byte[] bytes;
+            try {
+                bytes = new byte[(int) input.length()];
+                input.readFully(bytes);
+            } finally {
+                input.close();
+            }
+            if (bytes.length == 0) {
+                return;
+            }
+            for (Object value : (List<Object>) new OrbMsgPackReader(bytes).read()) {
+                Map<String, Object> map = (Map<String, Object>) value;
+                Number createdAt = (Number) map.get("createdAt");
+                entries.addLast(new Entry(
+                        (String) map.get("requestId"),
+                        (Map<String, Object>) map.get("event"),
+                        createdAt != null ? createdAt.longValue() : System.currentTimeMillis()
+                ));
+            }
+            Log.d(TAG, "Loaded " + entries.size() + " queued events");
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Could not load outbox: " + e.getMessage());
+            entries.clear();
+        }
+    }
+}
@@ -1,16 +1,27 @@
 package ai.meya.orb;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 
 import ai.meya.orb.config.OrbConfig;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
+import io.flutter.plugin.common.BasicMessageChannel;
+import io.flutter.plugin.common.BinaryCodec;
+import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
@@ -18,16 +29,67 @@ import io.flutter.plugin.common.MethodChannel.Result;
 
 public class OrbPlugin implements FlutterPlugin, MethodCallHandler {
   private static final String TAG = "OrbPlugin";
+  private static final int OUTBOX_BATCH_SIZE = 20;
+  private static final long OUTBOX_INITIAL_RETRY_DELAY = 1000;
+  private static final long OUTBOX_MAX_RETRY_DELAY = 60000;
 
   public Orb.ReadyListener readyListener;
-  public Orb.ConnectedListener connectedListener;
-  public Orb.DisconnectedListener disconnectedListener;
-  public Orb.FirstConnectListener firstConnectListener;
-  public Orb.ReconnectListener reconnectListener;
-  public Orb.EventListener eventListener;
-  public Orb.EventStreamListener eventStreamListener;
-  public Orb.CloseUiListener closeUiListener;
+  final OrbListenerRegistry<Orb.ConnectedListener> connectedListeners = new OrbListenerRegistry<>();
+  final OrbListenerRegistry<Orb.DisconnectedListener> disconnectedListeners = new OrbListenerRegistry<>();
+  final OrbListenerRegistry<Orb.FirstConnectListener> firstConnectListeners = new OrbListenerRegistry<>();
+  final OrbListenerRegistry<Orb.ReconnectListener> reconnectListeners = new OrbListenerRegistry<>();
+  final OrbListenerRegistry<Orb.EventListener> eventListeners = new OrbListenerRegistry<>();
+  final OrbListenerRegistry<Orb.EventStreamListener> eventStreamListeners = new OrbListenerRegistry<>();
+  final OrbListenerRegistry<Orb.CloseUiListener> closeUiListeners = new OrbListenerRegistry<>();
+  private OrbEventStore eventStore;
+  private OrbJournal journal;
   private MethodChannel channel;
+  private BasicMessageChannel<ByteBuffer> binaryChannel;
+  // Subscribed callback names, mapped to whether they are in delta mode.
+  private final Map<String, Boolean> subscriptions = new HashMap<>();
+  // The event types of the subscriptions that only want some of them.
+  private final Map<String, Set<String>> subscriptionTypes = new HashMap<>();
+  private final Map<String, OrbEventDelta> deltas = new HashMap<>();
+  private Map<String, Object> compaction;
+  private Map<String, Object> pendingEvent;
+  private OrbConfig configured;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private Executor listenerExecutor;
+  private final Map<String, Executor> callbackExecutors = new HashMap<>();
+  private final Map<String, Executor> serialExecutors = new HashMap<>();
+  private volatile boolean ready = false;
+  private boolean connected = false;
+  final OrbMetrics metrics = new OrbMetrics();
+  private volatile long initializeTime = 0;
+  private volatile long connectTime = 0;
+  // Outgoing method calls made before the Dart side was ready, in call order.
+  private final ConcurrentLinkedQueue<Object[]> pendingCalls = new ConcurrentLinkedQueue<>();
+  private final Runnable flushPendingCalls = new Runnable() {
+    @Override
+    public void run() {
+      flushPendingCalls();
+    }
+  };
+  private OrbOutbox outbox;
+  private boolean drainingOutbox = false;
+  private long outboxRetryDelay = OUTBOX_INITIAL_RETRY_DELAY;
+  private final Runnable drainOutbox = new Runnable() {
+    @Override
+    public void run() {
+      drainOutbox();
+    }
+  };
+  private long publishCoalescingWindow = 0;
+  private final ArrayList<Map<String, Object>> pendingPublishEvents = new ArrayList<>();
+  private final ArrayList<OrbFuture<Void>> pendingPublishFutures = new ArrayList<>();
+  // Futures of the events published through the outbox, by request id.
+  private final Map<String, OrbFuture<Void>> outboxFutures = new HashMap<>();
+  private final Runnable flushPublishEvents = new Runnable() {
+    @Override
+    public void run() {
+      flushPublishEvents();
+    }
+  };
 
 
   static class GenericResult implements MethodChannel.Result {
@@ -39,7 +101,7 @@ public class OrbPlugin implements FlutterPlugin, MethodCallHandler {
 
     @Override
     public void success(Object result) {
-      Log.d(TAG, result.toString());
+      Log.d(TAG, "'" + method + "': " + result);
     }
 
     @Override
@@ -53,10 +115,104 @@ public class OrbPlugin implements FlutterPlugin, MethodCallHandler {
     }
   }
 
+  /**
+   * Completes a command's future with the result of its method call.
+   */
+  static class FutureResult<T> extends GenericResult {
+    final OrbFuture<T> future;
+
+    FutureResult(String method, OrbFuture<T> future) {
+      super(method);
+      this.future = future;
+    }
+
+    @Override
+    public void success(Object result) {
+      super.success(result);
+      future.complete(convert(result));
+    }
+
+    /**
+     * @return the future's result for the method's result, null by default.
+     */
+    T convert(Object result) {
+      return null;
+    }
+
+    @Override
+    public void error(String errorCode, String errorMessage, Object errorDetails) {
+      super.error(errorCode, errorMessage, errorDetails);
+      future.fail(new OrbException(errorCode, errorMessage, errorDetails));
+    }
+
+    @Override
+    public void notImplemented() {
+      super.notImplemented();
+      future.fail(new OrbException("notImplemented", "'" + method + "' method not implemented", null));
+    }
+  }
+
   @Override
   public void onAttachedToEngine(@NonNull FlutterPluginBinding flutterPluginBinding) {
-    channel = new MethodChannel(flutterPluginBinding.getBinaryMessenger(), "orb");
+    attach(flutterPluginBinding.getBinaryMessenger());
+  }
+
+  /**
+   * Sets up the channels on the given messenger. Tests use this to attach
+   * the plugin to an in-process messenger instead of an engine.
+   */
+  void attach(BinaryMessenger messenger) {
+    channel = new MethodChannel(messenger, "orb");
     channel.setMethodCallHandler(this);
+    binaryChannel = new BasicMessageChannel<>(messenger, "orb/binary", BinaryCodec.INSTANCE);
+    binaryChannel.setMessageHandler(new BasicMessageChannel.MessageHandler<ByteBuffer>() {
+      @Override
+      public void onMessage(ByteBuffer message, @NonNull BasicMessageChannel.Reply<ByteBuffer> reply) {
+        onBinaryMessage(message);
+        reply.reply(null);
+      }
+    });
+  }
+
+  /**
+   * Handles a msgpack frame of the form {"method": ..., "arguments": ...}
+   * by dispatching it like the equivalent method call. Event lists in the
+   * arguments are decoded lazily, as the listeners access them.
+   */
+  private void onBinaryMessage(ByteBuffer message) {
+    if (message == null) {
+      return;
+    }
+    // The messenger's buffer is only valid for the duration of this callback.
+    byte[] frame = new byte[message.remaining()];
+    message.get(frame);
+
+    // The disabled metrics must not cost anything on this path.
+    boolean measured = metrics.isEnabled();
+    long start = measured ? System.nanoTime() : 0;
+    OrbMsgPackReader reader = new OrbMsgPackReader(frame);
+    String method = null;
+    Object arguments = null;
+    int size = reader.readMapHeader();
+    for (int i = 0; i < size; i++) {
+      String key = reader.readString();
+      if ("method".equals(key)) {
+        method = reader.readString();
+      } else if ("arguments".equals(key)) {
+        arguments = reader.readEventArguments();
+      } else {
+        reader.skip();
+      }
+    }
+    if (method == null) {
+      Log.e(TAG, "Binary frame without a method");
+      return;
+    }
+    if (measured) {
+      metrics.recordSince("decode.frame." + method, start);
+      metrics.record("inbound.bytes." + method, frame.length);
+    }
+    onMethodCall(new MethodCall(method, arguments), new GenericResult(method));
   }
 
   @Override
@@ -66,40 +222,86 @@ public class OrbPlugin implements FlutterPlugin, MethodCallHandler {
         result.success("Android " + android.os.Build.VERSION.RELEASE);
         break;
       case "ready":
+        if (initializeTime != 0) metrics.recordSince("startup.ready", initializeTime);
+        ready = true;
+        flushPendingCalls();
         if (readyListener != null) readyListener.onReady();
         break;
       case "connected":
-        if (connectedListener != null) connectedListener.onConnected();
+        if (connectTime != 0) metrics.recordSince("startup.connected", connectTime);
+        connectTime = 0;
+        connected = true;
+        outboxRetryDelay = OUTBOX_INITIAL_RETRY_DELAY;
+        drainOutbox();
+        if (eventStore != null || journal != null) {
+          Map<String, Object> arguments = call.arguments();
+          String threadId = arguments != null ? (String) arguments.get("threadId") : null;
+          if (eventStore != null) eventStore.setThreadId(threadId);
+          if (journal != null && arguments != null) journal.open(threadId);
+        }
+        if (!connectedListeners.isEmpty()) {
+          dispatch("connected", new Runnable() {
+            @Override
+            public void run() {
+              for (Orb.ConnectedListener listener : connectedListeners) listener.onConnected();
+            }
+          });
+        }
         break;
       case "disconnected":
-        if (disconnectedListener != null) disconnectedListener.onDisconnected();
+        connected = false;
+        mainHandler.removeCallbacks(drainOutbox);
+        if (!disconnectedListeners.isEmpty()) {
+          dispatch("disconnected", new Runnable() {
+            @Override
+            public void run() {
+              for (Orb.DisconnectedListener listener : disconnectedListeners) listener.onDisconnected();
+            }
+          });
+        }
         break;
       case "firstConnect":
-        if (firstConnectListener != null) {
+        if (!firstConnectListeners.isEmpty() || isRecording()) {
           Map<String, Object> arguments = call.arguments();
-          firstConnectListener.onFirstConnect(extractEventStream(arguments));
+          List<Map<String, Object>> eventStream = extractEventStream("firstConnect", arguments);
+          if (eventStream == null) break;
+          updateEventStore(arguments, eventStream);
+          dispatchFirstConnect(eventStream);
         }
         break;
       case "reconnect":
-        if (reconnectListener != null) {
+        if (!reconnectListeners.isEmpty() || isRecording()) {
           Map<String, Object> arguments = call.arguments();
-          reconnectListener.onReconnect(extractEventStream(arguments));
+          List<Map<String, Object>> eventStream = extractEventStream("reconnect", arguments);
+          if (eventStream == null) break;
+          updateEventStore(arguments, eventStream);
+          dispatchReconnect(eventStream);
         }
         break;
       case "event":
-        if (eventListener != null) {
+        if (!eventListeners.isEmpty() || isRecording()) {
           Map<String, Object> arguments = call.arguments();
-          eventListener.onEvent(extractEvent(arguments), extractEventStream(arguments));
+          onEvent(arguments);
         }
         break;
       case "eventStream":
-        if (eventStreamListener != null) {
+        if (!eventStreamListeners.isEmpty() || isRecording()) {
           Map<String, Object> arguments = call.arguments();
-          eventStreamListener.onEventStream(extractEventStream(arguments));
+          List<Map<String, Object>> eventStream = extractEventStream("eventStream", arguments);
+          if (eventStream == null) break;
+          updateEventStore(arguments, eventStream);
+          dispatchEventStream(eventStream);
         }
         break;
       case "closeUi":
-        if (closeUiListener != null) closeUiListener.onCloseUi();
+        if (!closeUiListeners.isEmpty()) {
+          dispatch("closeUi", new Runnable() {
+            @Override
+            public void run() {
+              for (Orb.CloseUiListener listener : closeUiListeners) listener.onCloseUi();
+            }
+          });
+        }
         break;
       default:
         result.notImplemented();
@@ -110,44 +312,671 @@ public class OrbPlugin implements FlutterPlugin, MethodCallHandler {
   @Override
   public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
     channel.setMethodCallHandler(null);
+    binaryChannel.setMessageHandler(null);
+  }
+
+  public OrbFuture<Void> subscribe(String name) {
+    return subscribe(name, false);
   }
 
-  public void subscribe(String name) {
-    Log.d(TAG, "Subscribing to '" + name + "'");
+  /**
+   * Subscribes to a Dart side callback. In delta mode only new or changed
+   * events cross the channel and the event stream is rebuilt natively.
+   */
+  public OrbFuture<Void> subscribe(String name, boolean delta) {
+    return subscribe(name, delta, null);
+  }
+
+  /**
+   * Subscribes to a Dart side callback for the events of the given types
+   * only, or of every type if null. The Dart side drops the other events
+   * before they are encoded, so they never cross the channel.
+   */
+  public OrbFuture<Void> subscribe(String name, boolean delta, @Nullable Set<String> types) {
+    Log.d(TAG, "Subscribing to '" + name + "'" + (delta ? " (delta)" : "") + (types != null ? " for " + types : ""));
+    subscriptions.put(name, delta);
+    if (types != null) {
+      subscriptionTypes.put(name, types);
+    } else {
+      subscriptionTypes.remove(name);
+    }
+    if (delta) {
+      deltas.put(name, new OrbEventDelta());
+    } else {
+      deltas.remove(name);
+    }
+    Map<String, Object> options = new HashMap<>();
+    options.put("delta", delta);
+    options.put("binary", true);
+    if (compaction != null) options.put("compaction", compaction);
+    if (types != null) options.put("types", new ArrayList<>(types));
     Map<String, Object> arguments = new HashMap<>();
     arguments.put("name", name);
-    channel.invokeMethod("subscribe", arguments, new GenericResult("subscribe"));
+    arguments.put("options", options);
+    return command("subscribe", arguments);
+  }
+
+  public boolean isSubscribed(String name) {
+    return subscriptions.containsKey(name);
   }
 
-  public void unsubscribe(String name) {
+  public OrbFuture<Void> unsubscribe(String name) {
     Log.d(TAG, "Un-subscribing to '" + name + "'");
+    subscriptions.remove(name);
+    subscriptionTypes.remove(name);
+    deltas.remove(name);
     Map<String, Object> arguments = new HashMap<>();
     arguments.put("name", name);
-    channel.invokeMethod("unsubscribe", arguments, new GenericResult("unsubscribe"));
+    return command("unsubscribe", arguments);
+  }
+
+  /**
+   * Gets a page of the Dart side's event stream, newest first, starting
+   * after the {@code before} event, or with the newest event if null.
+   */
+  public OrbFuture<OrbEventPage> getEvents(@Nullable String before, int limit) {
+    Map<String, Object> arguments = new HashMap<>();
+    arguments.put("before", before);
+    arguments.put("limit", limit);
+    OrbFuture<OrbEventPage> future = new OrbFuture<>();
+    invokeMethod("getEvents", arguments, new FutureResult<OrbEventPage>("getEvents", future) {
+      @Override
+      @SuppressWarnings("unchecked")
+      OrbEventPage convert(Object result) {
+        return OrbEventPage.fromMap((Map<String, Object>) result);
+      }
+    });
+    return future;
+  }
+
+  <T> void addListener(OrbListenerRegistry<T> listeners, String name, T listener, boolean delta) {
+    addListener(listeners, name, listener, delta, null);
+  }
+
+  <T> void addListener(
+      OrbListenerRegistry<T> listeners,
+      String name,
+      T listener,
+      boolean delta,
+      @Nullable Set<String> types
+  ) {
+    if (listeners.add(listener, delta, types) && name != null) {
+      updateSubscription(name, listeners);
+    }
+  }
+
+  <T> void removeListener(OrbListenerRegistry<T> listeners, String name, T listener) {
+    if (listeners.remove(listener) && name != null) {
+      updateSubscription(name, listeners);
+    }
+  }
+
+  void setEventStore(OrbEventStore eventStore) {
+    this.eventStore = eventStore;
+    updateSubscription("eventStream", eventStreamListeners);
+  }
+
+  void setJournal(OrbJournal journal) {
+    this.journal = journal;
+    updateSubscription("eventStream", eventStreamListeners);
+  }
+
+  /**
+   * @return true if the events need to be received even without listeners,
+   * to keep the event store or the journal up to date.
+   */
+  private boolean isRecording() {
+    return eventStore != null || journal != null;
+  }
+
+  /**
+   * Keeps the Dart side subscribed to a callback only while at least one
+   * native listener (or the event store or journal) needs it. Delta mode is
+   * used if any of them asked for it, since listeners always get the full
+   * stream. The subscription is filtered to the union of the event types the
+   * listeners want, unless one of them wants every type.
+   */
+  private void updateSubscription(String name, OrbListenerRegistry<?> listeners) {
+    boolean storeSubscribed = isRecording() && "eventStream".equals(name);
+    boolean needed = !listeners.isEmpty() || storeSubscribed;
+    boolean delta = listeners.isDelta() || storeSubscribed;
+    Set<String> types = storeSubscribed ? null : listeners.getTypes();
+    Boolean subscribedDelta = subscriptions.get(name);
+    if (!needed) {
+      if (subscribedDelta != null) unsubscribe(name);
+    } else if (subscribedDelta == null || subscribedDelta != delta || !equal(subscriptionTypes.get(name), types)) {
+      subscribe(name, delta, types);
+    }
   }
 
-  public void configure(OrbConfig config) {
-    Log.d(TAG, "Configuring Orb");
-    channel.invokeMethod("configure", config.toMap(), new GenericResult("configure"));
+  private static boolean equal(@Nullable Object a, @Nullable Object b) {
+    return a == null ? b == null : a.equals(b);
   }
-  
-  public void connect(OrbConnectionOptions options) {
+
+  private void resync(String name) {
+    Log.d(TAG, "Resyncing '" + name + "'");
+    Map<String, Object> arguments = new HashMap<>();
+    arguments.put("name", name);
+    invokeMethod("resync", arguments);
+  }
+
+  /**
+   * Sends the whole config the first time, after that only the sections of
+   * the same config object that changed are sent as a patch. The future
+   * succeeds right away if nothing changed.
+   */
+  public OrbFuture<Void> configure(OrbConfig config) {
+    if (config != configured) {
+      Log.d(TAG, "Configuring Orb");
+      configured = config;
+      return command("configure", config.toMap());
+    }
+    Map<String, Object> patch = config.toPatch();
+    if (patch.size() == 1) {
+      Log.d(TAG, "Orb config unchanged");
+      return OrbFuture.succeeded(null);
+    }
+    Log.d(TAG, "Updating Orb config: " + patch.keySet());
+    return command("configure", patch);
+  }
+
+  /**
+   * The future succeeds once the Dart side has started connecting, the
+   * connected listeners are called once the socket is connected.
+   */
+  public OrbFuture<Void> connect(OrbConnectionOptions options) {
     Log.d(TAG, "Connecting to '" + options.gridUrl + "'");
-    channel.invokeMethod("connect", options.toMap(), new GenericResult("connect"));
+    connectTime = System.nanoTime();
+    return command("connect", options.toMap());
   }
 
-  public void disconnect(boolean logOut) {
+  public OrbFuture<Void> disconnect(boolean logOut) {
+    flushPublishEvents();
     Log.d(TAG, "Disconnect");
     Map<String, Object> arguments = new HashMap<>();
     arguments.put("logOut", logOut);
-    channel.invokeMethod("disconnect", arguments, new GenericResult("disconnect"));
+    return command("disconnect", arguments);
   }
 
-  public void publishEvent(Map<String, Object> event) {
+  /**
+   * The future succeeds once the event has been handed to the connection,
+   * and fails if Orb has no connection.
+   */
+  public OrbFuture<Void> publishEvent(Map<String, Object> event) {
+    if (publishCoalescingWindow > 0) {
+      return coalescePublishEvents(Collections.singletonList(event));
+    }
     Log.d(TAG, "Publish event");
     Map<String, Object> arguments = new HashMap<>();
     arguments.put("event", event);
-    channel.invokeMethod("publishEvent", arguments, new GenericResult("publishEvent"));
+    return command("publishEvent", arguments);
+  }
+
+  void onInitialize() {
+    initializeTime = System.nanoTime();
+  }
+
+  void setOutbox(OrbOutbox outbox) {
+    this.outbox = outbox;
+    mainHandler.post(drainOutbox);
+  }
+
+  /**
+   * Queues the events in the outbox, they are published as soon as Orb is
+   * connected, with one platform channel call per batch of up to
+   * {@link #OUTBOX_BATCH_SIZE} events. The future succeeds once all of them
+   * have been published, it never times out by itself, and fails right away
+   * if an event can't be saved.
+   */
+  OrbFuture<Void> publishEventsDurably(List<Map<String, Object>> events) {
+    if (events.isEmpty()) {
+      return OrbFuture.succeeded(null);
+    }
+    List<String> requestIds;
+    try {
+      requestIds = outbox.addAll(events);
+    } catch (IllegalArgumentException e) {
+      return OrbFuture.failed(new OrbException("invalidEvent", e.getMessage(), null));
+    }
+    final OrbFuture<Void> future = new OrbFuture<>();
+    final int[] remaining = {requestIds.size()};
+    OrbFuture.Callback<Void> callback = new OrbFuture.Callback<Void>() {
+      @Override
+      public void onSuccess(Void result) {
+        synchronized (remaining) {
+          if (--remaining[0] > 0) return;
+        }
+        future.complete(null);
+      }
+
+      @Override
+      public void onFailure(@NonNull Throwable error) {
+        future.fail(error);
+      }
+    };
+    for (String requestId : requestIds) {
+      OrbFuture<Void> published = new OrbFuture<>();
+      published.addCallback(callback);
+      synchronized (outboxFutures) {
+        outboxFutures.put(requestId, published);
+      }
+    }
+    mainHandler.post(drainOutbox);
+    return future;
+  }
+
+  /**
+   * Cancels the futures of the events in the outbox, once it was cleared.
+   */
+  void cancelOutboxFutures() {
+    ArrayList<OrbFuture<Void>> futures;
+    synchronized (outboxFutures) {
+      futures = new ArrayList<>(outboxFutures.values());
+      outboxFutures.clear();
+    }
+    for (OrbFuture<Void> future : futures) {
+      future.cancel(false);
+    }
+  }
+
+  /**
+   * Publishes the outbox in batches, oldest first, one batch at a time.
+   * Failed batches are retried with an exponential backoff while connected,
+   * and from the start of the outbox on the next connect.
+   */
+  private void drainOutbox() {
+    if (outbox == null || !connected || drainingOutbox) {
+      return;
+    }
+    final List<OrbOutbox.Entry> batch = outbox.peek(OUTBOX_BATCH_SIZE);
+    if (batch.isEmpty()) {
+      return;
+    }
+    drainingOutbox = true;
+    Log.d(TAG, "Publishing " + batch.size() + " events from the outbox");
+    ArrayList<Map<String, Object>> events = new ArrayList<>(batch.size());
+    ArrayList<String> requestIds = new ArrayList<>(batch.size());
+    for (OrbOutbox.Entry entry : batch) {
+      events.add(entry.event);
+      requestIds.add(entry.requestId);
+    }
+    Map<String, Object> arguments = new HashMap<>();
+    arguments.put("events", events);
+    arguments.put("requestIds", requestIds);
+    invokeMethod("publishEvents", arguments, new Result() {
+      @Override
+      public void success(Object result) {
+        drainingOutbox = false;
+        outboxRetryDelay = OUTBOX_INITIAL_RETRY_DELAY;
+        outbox.remove(batch);
+        for (OrbOutbox.Entry entry : batch) {
+          OrbFuture<Void> future;
+          synchronized (outboxFutures) {
+            future = outboxFutures.remove(entry.requestId);
+          }
+          if (future != null) future.complete(null);
+        }
+        drainOutbox();
+      }
+
+      @Override
+      public void error(String errorCode, String errorMessage, Object errorDetails) {
+        Log.e(TAG, "Could not publish the outbox: " + errorCode + ": " + errorMessage);
+        retry();
+      }
+
+      @Override
+      public void notImplemented() {
+        Log.e(TAG, "'publishEvents' method not implemented");
+        retry();
+      }
+
+      private void retry() {
+        drainingOutbox = false;
+        if (!connected) return;
+        mainHandler.postDelayed(drainOutbox, outboxRetryDelay);
+        outboxRetryDelay = Math.min(outboxRetryDelay * 2, OUTBOX_MAX_RETRY_DELAY);
+      }
+    });
+  }
+
+  /**
+   * Publishes several events with a single platform channel call.
+   */
+  public OrbFuture<Void> publishEvents(List<Map<String, Object>> events) {
+    if (events.isEmpty()) {
+      return OrbFuture.succeeded(null);
+    }
+    if (publishCoalescingWindow > 0) {
+      return coalescePublishEvents(events);
+    }
+    Log.d(TAG, "Publish " + events.size() + " events");
+    Map<String, Object> arguments = new HashMap<>();
+    arguments.put("events", new ArrayList<>(events));
+    return command("publishEvents", arguments);
+  }
+
+  /**
+   * Sets the ephemeral event types that are compacted out of the event
+   * streams sent by the Dart side, null to send every event. The current
+   * subscriptions are renewed with the new compaction.
+   */
+  public void setEventCompaction(@Nullable OrbEventCompaction compaction) {
+    this.compaction = compaction != null && !compaction.isEmpty() ? compaction.toMap() : null;
+    for (Map.Entry<String, Boolean> subscription : new ArrayList<>(subscriptions.entrySet())) {
+      String name = subscription.getKey();
+      subscribe(name, subscription.getValue(), subscriptionTypes.get(name));
+    }
+  }
+
+  /**
+   * Merges events published within the given window (in milliseconds) into
+   * one "publishEvents" call. A window of 0 publishes every event right away.
+   */
+  public void setPublishCoalescingWindow(long window) {
+    publishCoalescingWindow = Math.max(0, window);
+    if (publishCoalescingWindow == 0) {
+      flushPublishEvents();
+    }
+  }
+
+  /**
+   * @return a future completed with the result of the coalesced call.
+   */
+  private OrbFuture<Void> coalescePublishEvents(List<Map<String, Object>> events) {
+    OrbFuture<Void> future = new OrbFuture<>();
+    synchronized (pendingPublishEvents) {
+      boolean schedule = pendingPublishEvents.isEmpty();
+      pendingPublishEvents.addAll(events);
+      pendingPublishFutures.add(future);
+      if (schedule) mainHandler.postDelayed(flushPublishEvents, publishCoalescingWindow);
+    }
+    return future;
+  }
+
+  private void flushPublishEvents() {
+    ArrayList<Map<String, Object>> events;
+    final ArrayList<OrbFuture<Void>> futures;
+    synchronized (pendingPublishEvents) {
+      if (pendingPublishEvents.isEmpty()) {
+        return;
+      }
+      mainHandler.removeCallbacks(flushPublishEvents);
+      events = new ArrayList<>(pendingPublishEvents);
+      futures = new ArrayList<>(pendingPublishFutures);
+      pendingPublishEvents.clear();
+      pendingPublishFutures.clear();
+    }
+    Log.d(TAG, "Publish " + events.size() + " coalesced events");
+    Map<String, Object> arguments = new HashMap<>();
+    arguments.put("events", events);
+    command("publishEvents", arguments).addCallback(new OrbFuture.Callback<Void>() {
+      @Override
+      public void onSuccess(Void result) {
+        for (OrbFuture<Void> future : futures) future.complete(null);
+      }
+
+      @Override
+      public void onFailure(@NonNull Throwable error) {
+        for (OrbFuture<Void> future : futures) future.fail(error);
+      }
+    });
+  }
+
+  private void onEvent(Map<String, Object> arguments) {
+    List<Map<String, Object>> eventStream = extractEventStream("event", arguments);
+    Map<String, Object> event = arguments.get("event") != null ? extractEvent(arguments) : pendingEvent;
+    if (eventStream == null) {
+      // Hold on to the event until the resynced stream arrives.
+      pendingEvent = event;
+      return;
+    }
+    pendingEvent = null;
+    if (event == null) {
+      return;
+    }
+    if (eventStore != null) eventStore.add(event);
+    if (journal != null) journal.append(event);
+    dispatchEvent(event, eventStream);
+  }
+
+  /**
+   * Sets the executor used to call all listeners except the ready listener.
+   * A null executor calls listeners directly on the platform thread.
+   */
+  public void setListenerExecutor(Executor executor) {
+    synchronized (serialExecutors) {
+      listenerExecutor = executor;
+      serialExecutors.clear();
+    }
+  }
+
+  /**
+   * Sets the executor used to call the listener of one callback, e.g.
+   * "event" or "eventStream", overriding {@link #setListenerExecutor(Executor)}.
+   */
+  public void setListenerExecutor(String callback, Executor executor) {
+    synchronized (serialExecutors) {
+      if (executor != null) {
+        callbackExecutors.put(callback, executor);
+      } else {
+        callbackExecutors.remove(callback);
+      }
+      serialExecutors.remove(callback);
+    }
+  }
+
+  /**
+   * Runs a listener callback on its executor. Callbacks of the same type are
+   * always run one at a time and in the order they were received.
+   */
+  private void dispatch(final String callback, final Runnable listeners) {
+    Runnable runnable = listeners;
+    if (metrics.isEnabled()) {
+      final String metric = "dispatch." + callback;
+      runnable = new Runnable() {
+        @Override
+        public void run() {
+          long start = System.nanoTime();
+          listeners.run();
+          metrics.recordSince(metric, start);
+        }
+      };
+    }
+    Executor executor;
+    // The executors can be changed from any thread while callbacks are
+    // dispatched on the platform thread.
+    synchronized (serialExecutors) {
+      executor = serialExecutors.get(callback);
+      if (executor == null) {
+        Executor target = callbackExecutors.containsKey(callback)
+                ? callbackExecutors.get(callback)
+                : listenerExecutor;
+        if (target != null) {
+          executor = new OrbSerialExecutor(target);
+          serialExecutors.put(callback, executor);
+        }
+      }
+    }
+    if (executor == null) {
+      runnable.run();
+      return;
+    }
+    executor.execute(runnable);
+  }
+
+  private void dispatchFirstConnect(final List<Map<String, Object>> eventStream) {
+    if (firstConnectListeners.isEmpty()) {
+      return;
+    }
+    dispatch("firstConnect", new Runnable() {
+      @Override
+      public void run() {
+        for (Orb.FirstConnectListener listener : firstConnectListeners) listener.onFirstConnect(eventStream);
+      }
+    });
+  }
+
+  private void dispatchReconnect(final List<Map<String, Object>> eventStream) {
+    if (reconnectListeners.isEmpty()) {
+      return;
+    }
+    dispatch("reconnect", new Runnable() {
+      @Override
+      public void run() {
+        for (Orb.ReconnectListener listener : reconnectListeners) listener.onReconnect(eventStream);
+      }
+    });
+  }
+
+  private void dispatchEvent(final Map<String, Object> event, final List<Map<String, Object>> eventStream) {
+    if (eventListeners.isEmpty()) {
+      return;
+    }
+    dispatch("event", new Runnable() {
+      @Override
+      public void run() {
+        Object type = event.get("type");
+        for (Orb.EventListener listener : eventListeners) {
+          // Events of the other listeners' types may arrive as well.
+          if (eventListeners.accepts(listener, type instanceof String ? (String) type : null)) {
+            listener.onEvent(event, eventStream);
+          }
+        }
+      }
+    });
+  }
+
+  private void dispatchEventStream(final List<Map<String, Object>> eventStream) {
+    if (eventStreamListeners.isEmpty()) {
+      return;
+    }
+    dispatch("eventStream", new Runnable() {
+      @Override
+      public void run() {
+        for (Orb.EventStreamListener listener : eventStreamListeners) listener.onEventStream(eventStream);
+      }
+    });
+  }
+
+  /**
+   * Platform channels must be used from the main thread, listeners running
+   * on other executors may call back into Orb from anywhere.
+   *
+   * Calls made before the Dart side is ready are queued and sent, in order,
+   * as soon as it signals ready.
+   */
+  private void invokeMethod(String method, Object arguments) {
+    invokeMethod(method, arguments, new GenericResult(method));
+  }
+
+  /**
+   * Invokes a method, returning a future of its result.
+   */
+  private OrbFuture<Void> command(String method, Object arguments) {
+    OrbFuture<Void> future = new OrbFuture<>();
+    invokeMethod(method, arguments, new FutureResult<>(method, future));
+    return future;
+  }
+
+  private void invokeMethod(final String method, final Object arguments, final Result result) {
+    if (!ready) {
+      pendingCalls.add(new Object[]{method, arguments, result});
+      // The Dart side may have become ready while the call was being queued.
+      if (ready) mainHandler.post(flushPendingCalls);
+      return;
+    }
+    if (Looper.myLooper() == Looper.getMainLooper()) {
+      send(method, arguments, result);
+      return;
+    }
+    mainHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        send(method, arguments, result);
+      }
+    });
+  }
+
+  private void send(final String method, Object arguments, final Result result) {
+    if (result instanceof FutureResult && ((FutureResult<?>) result).future.isDone()) {
+      Log.d(TAG, "Not sending cancelled or timed out '" + method + "' call");
+      return;
+    }
+    if (!metrics.isEnabled()) {
+      channel.invokeMethod(method, arguments, result);
+      return;
+    }
+    final long start = System.nanoTime();
+    channel.invokeMethod(method, arguments, new Result() {
+      @Override
+      public void success(Object value) {
+        metrics.recordSince("channel." + method, start);
+        result.success(value);
+      }
+
+      @Override
+      public void error(String errorCode, String errorMessage, Object errorDetails) {
+        metrics.recordSince("channel." + method, start);
+        result.error(errorCode, errorMessage, errorDetails);
+      }
+
+      @Override
+      public void notImplemented() {
+        result.notImplemented();
+      }
+    });
+  }
+
+  private void flushPendingCalls() {
+    Object[] call;
+    while ((call = pendingCalls.poll()) != null) {
+      String method = (String) call[0];
+      Log.d(TAG, "Sending queued '" + method + "' call");
+      send(method, call[1], (Result) call[2]);
+    }
+  }
+
+  private void updateEventStore(Map<String, Object> arguments, List<Map<String, Object>> eventStream) {
+    if (!isRecording()) {
+      return;
+    }
+    if (arguments.containsKey("sequence") && !Boolean.TRUE.equals(arguments.get("full"))) {
+      // A delta frame only carries the new or changed events.
+      List<Map<String, Object>> events = (List<Map<String, Object>>) arguments.get("events");
+      if (events == null) return;
+      if (eventStore != null) eventStore.addAll(events);
+      if (journal != null) journal.appendAll(events);
+    } else {
+      if (eventStore != null) eventStore.sync(eventStream);
+      if (journal != null) journal.appendAll(eventStream);
+    }
+  }
+
+  /**
+   * @return the event stream for the callback, or null if a delta frame was
+   * missed and a resync has been requested.
+   */
+  private List<Map<String, Object>> extractEventStream(String name, Map<String, Object> arguments) {
+    boolean measured = metrics.isEnabled();
+    long start = measured ? System.nanoTime() : 0;
+    List<Map<String, Object>> eventStream;
+    OrbEventDelta delta = deltas.get(name);
+    if (delta == null || !arguments.containsKey("sequence")) {
+      eventStream = extractEventStream(arguments);
+    } else if (delta.apply(arguments)) {
+      eventStream = delta.getEventStream();
+    } else {
+      resync(name);
+      return null;
+    }
+    if (measured) {
+      metrics.recordSince("decode." + name, start);
+      metrics.record("inbound.events." + name, eventStream.size());
+      Object compacted = arguments.get("compacted");
+      if (compacted instanceof Number) metrics.record("compacted." + name, ((Number) compacted).longValue());
+    }
+    return eventStream;
   }
 
   private List<Map<String, Object>> extractEventStream(Map<String, Object> arguments) {
@@ -0,0 +1,201 @@
+package ai.meya.orb;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import ai.meya.orb.config.OrbConfig;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Prefetches the conversation of a Meya push notification, so that tapping
+ * it opens a conversation that is already connected and populated.
+ *
+ * Meya pushes carry the integration that sent them in their
+ * {@value #INTEGRATION_ID_KEY} data key. For integrations registered with
+ * {@link #register}, {@link #onMessageReceived} creates or resumes the
+ * integration's Orb instance (see {@link Orb#getInstance}) and connects it
+ * on the main thread. It doesn't wait for the thread's events, so call it
+ * from {@code FirebaseMessagingService.onMessageReceived} before showing the
+ * notification, and open the conversation with {@link #createIntent}.
+ */
+public class OrbPushHandler {
+    private static final String TAG = "OrbPushHandler";
+    public static final String INTEGRATION_ID_KEY = "meya_integration_id";
+    /**
+     * How long the prefetch started by {@link #onMessageReceived} listens
+     * for the events by default, in milliseconds.
+     */
+    public static final long DEFAULT_TIMEOUT = 8000;
+
+    private static class Registration {
+        final OrbConfig config;
+        final OrbConnectionOptions options;
+
+        Registration(OrbConfig config, OrbConnectionOptions options) {
+            this.config = config;
+            this.options = options;
+        }
+    }
+
+    private static final Map<String, Registration> registrations = new ConcurrentHashMap<>();
+    // Replaced in tests, which have no main looper.
+    static Executor mainThread = new Executor() {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            handler.post(command);
+        }
+    };
+
+    private OrbPushHandler() {}
+
+    /**
+     * Registers how to connect to the integration of {@code options}, e.g.
+     * on app start-up. The options should include the device token, since
+     * the instance is created without one.
+     */
+    public static void register(@Nullable OrbConfig config, @NonNull OrbConnectionOptions options) {
+        registrations.put(options.integrationId, new Registration(config, options));
+    }
+
+    public static void unregister(@NonNull String integrationId) {
+        registrations.remove(integrationId);
+    }
+
+    /**
+     * @return the integration id of a Meya push's data, or null if the push
+     * wasn't sent by Meya.
+     */
+    @Nullable
+    public static String getIntegrationId(@NonNull Map<String, String> data) {
+        return data.get(INTEGRATION_ID_KEY);
+    }
+
+    public static boolean onMessageReceived(@NonNull Context context, @NonNull Map<String, String> data) {
+        return onMessageReceived(context, data, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Connects the integration's Orb instance on the main thread and returns
+     * right away, so that the notification can be shown without delay. The
+     * events are fetched in the background, the prefetch gives up listening
+     * for them after {@code timeout} milliseconds.
+     *
+     * @return true if the push was sent by Meya.
+     */
+    public static boolean onMessageReceived(
+            @NonNull Context context,
+            @NonNull Map<String, String> data,
+            final long timeout
+    ) {
+        final String integrationId = getIntegrationId(data);
+        if (integrationId == null) {
+            return false;
+        }
+        final Registration registration = registrations.get(integrationId);
+        if (registration == null) {
+            Log.d(TAG, "No connection registered for integration '" + integrationId + "'");
+            return true;
+        }
+        final Context applicationContext = context.getApplicationContext();
+        mainThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Orb orb = Orb.getInstance(applicationContext, integrationId);
+                // Instances that were connected before are resumed by getInstance.
+                if (orb.connectionOptions != null) return;
+                Runnable connect = new Runnable() {
+                    @Override
+                    public void run() {
+                        if (registration.config != null) orb.configure(registration.config);
+                        orb.connect(registration.options);
+                    }
+                };
+                OrbPlugin plugin = Orb.getPlugin(orb.engine);
+                if (plugin == null) {
+                    connect.run();
+                    return;
+                }
+                prefetch(plugin, connect, timeout).addCallback(new OrbFuture.Callback<Boolean>() {
+                    @Override
+                    public void onSuccess(@Nullable Boolean result) {
+                        Log.d(TAG, "Prefetched integration '" + integrationId + "'");
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull Throwable error) {
+                        Log.d(TAG, "Could not prefetch integration '" + integrationId + "': " + error.getMessage());
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Creates an intent that opens the conversation of a Meya push, or the
+     * default one if the push has no integration id. Call it on the main
+     * thread, since it may create the integration's instance.
+     */
+    @NonNull
+    public static Intent createIntent(
+            @NonNull Context launchContext,
+            @NonNull Class<? extends OrbActivity> activityClass,
+            @NonNull Map<String, String> data
+    ) {
+        String integrationId = getIntegrationId(data);
+        if (integrationId == null) {
+            return OrbActivity.createDefaultIntent(launchContext, activityClass);
+        }
+        return OrbActivity.createInstanceIntent(launchContext, activityClass, integrationId);
+    }
+
+    /**
+     * Runs {@code connect}, on the main thread, and listens for the event
+     * stream it fetches.
+     *
+     * @return a future that succeeds once the plugin receives an event
+     * stream, or fails after {@code timeout} milliseconds. Either way, the
+     * listener is removed.
+     */
+    static OrbFuture<Boolean> prefetch(final OrbPlugin plugin, Runnable connect, long timeout) {
+        final OrbFuture<Boolean> prefetched = new OrbFuture<>();
+        final Orb.EventStreamListener listener = new Orb.EventStreamListener() {
+            @Override
+            public void onEventStream(List<Map<String, Object>> eventStream) {
+                prefetched.complete(true);
+            }
+        };
+        final Runnable remove = new Runnable() {
+            @Override
+            public void run() {
+                plugin.removeListener(plugin.eventStreamListeners, "eventStream", listener);
+            }
+        };
+        prefetched.addCallback(new OrbFuture.Callback<Boolean>() {
+            @Override
+            public void onSuccess(@Nullable Boolean result) {
+                mainThread.execute(remove);
+            }
+
+            @Override
+            public void onFailure(@NonNull Throwable error) {
+                mainThread.execute(remove);
+            }
+        });
+        plugin.addListener(plugin.eventStreamListeners, "eventStream", listener, true);
+        connect.run();
+        return prefetched.withTimeout(timeout, TimeUnit.MILLISECONDS);
+    }
+}
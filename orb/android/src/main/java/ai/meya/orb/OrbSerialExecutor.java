@@ -0,0 +1,52 @@
+package ai.meya.orb;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on top of any
+ * executor. Used so that each listener sees its callbacks in order even when
+ * they are dispatched to a thread pool. Tasks the executor rejects, e.g.
+ * once it is shut down, are dropped.
+ */
+final class OrbSerialExecutor implements Executor {
+    private static final String TAG = "OrbSerialExecutor";
+    private final Executor executor;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private Runnable active;
+
+    OrbSerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public synchronized void execute(final Runnable task) {
+        tasks.add(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    scheduleNext();
+                }
+            }
+        });
+        if (active == null) {
+            scheduleNext();
+        }
+    }
+
+    private synchronized void scheduleNext() {
+        while ((active = tasks.poll()) != null) {
+            try {
+                executor.execute(active);
+                return;
+            } catch (RejectedExecutionException e) {
+                Log.w(TAG, "Dropped a task rejected by its executor: " + e.getMessage());
+            }
+        }
+    }
+}
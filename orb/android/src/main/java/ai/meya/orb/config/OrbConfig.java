@@ -1,9 +1,27 @@
 package ai.meya.orb.config;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+/**
+ * The Orb UI config.
+ *
+ * Calling {@code Orb.configure} again with the same config only sends the
+ * sections whose encoded maps differ from the ones last sent, whether the
+ * section was replaced or changed in place, e.g. after updating
+ * {@code config.header.progress}.
+ */
 public class OrbConfig {
+    public static final String THEME = "theme";
+    public static final String COMPOSER = "composer";
+    public static final String HEADER = "header";
+    public static final String MENU = "menu";
+    public static final String SPLASH = "splash";
+    public static final String MEDIA_UPLOAD = "mediaUpload";
+
     public OrbTheme theme = null;
     public OrbComposer composer = null;
     public OrbHeader header = null;
@@ -11,6 +29,12 @@ public class OrbConfig {
     public OrbSplash splash = null;
     public OrbMediaUpload mediaUpload = null;
 
+    // Section name -> a copy of the encoded map last sent, with arrays
+    // turned into lists so that it compares by content.
+    private final HashMap<String, Object> sent = new HashMap<>();
+
+    public OrbConfig() {}
+
     public OrbConfig(OrbTheme theme, OrbComposer composer, OrbSplash splash) {
         this.theme = theme;
         this.composer = composer;
@@ -33,14 +57,113 @@ public class OrbConfig {
         this.mediaUpload = mediaUpload;
     }
 
-    public Map<String, Object> toMap() {
+    public synchronized OrbConfig setTheme(OrbTheme theme) {
+        this.theme = theme;
+        return this;
+    }
+
+    public synchronized OrbConfig setComposer(OrbComposer composer) {
+        this.composer = composer;
+        return this;
+    }
+
+    public synchronized OrbConfig setHeader(OrbHeader header) {
+        this.header = header;
+        return this;
+    }
+
+    public synchronized OrbConfig setMenu(OrbMenu menu) {
+        this.menu = menu;
+        return this;
+    }
+
+    public synchronized OrbConfig setSplash(OrbSplash splash) {
+        this.splash = splash;
+        return this;
+    }
+
+    public synchronized OrbConfig setMediaUpload(OrbMediaUpload mediaUpload) {
+        this.mediaUpload = mediaUpload;
+        return this;
+    }
+
+    /**
+     * @return the whole config, all sections are marked as sent.
+     */
+    public synchronized Map<String, Object> toMap() {
         HashMap<String, Object> config = new HashMap<>();
-        config.put("theme", theme != null ? theme.toMap() : null);
-        config.put("composer", composer != null ? composer.toMap() : null);
-        config.put("header", header != null ? header.toMap() : null);
-        config.put("menu", menu != null ? menu.toMap() : null);
-        config.put("splash", splash != null ? splash.toMap() : null);
-        config.put("mediaUpload", mediaUpload != null ? mediaUpload.toMap() : null);
+        sent.clear();
+        putIfChanged(config, THEME, theme);
+        putIfChanged(config, COMPOSER, composer);
+        putIfChanged(config, HEADER, header);
+        putIfChanged(config, MENU, menu);
+        putIfChanged(config, SPLASH, splash);
+        putIfChanged(config, MEDIA_UPLOAD, mediaUpload);
         return config;
     }
+
+    /**
+     * @return only the sections changed since the last call to
+     * {@link #toMap()} or {@link #toPatch()}, with "patch" set to true.
+     */
+    public synchronized Map<String, Object> toPatch() {
+        HashMap<String, Object> patch = new HashMap<>();
+        patch.put("patch", true);
+        putIfChanged(patch, THEME, theme);
+        putIfChanged(patch, COMPOSER, composer);
+        putIfChanged(patch, HEADER, header);
+        putIfChanged(patch, MENU, menu);
+        putIfChanged(patch, SPLASH, splash);
+        putIfChanged(patch, MEDIA_UPLOAD, mediaUpload);
+        return patch;
+    }
+
+    private void putIfChanged(HashMap<String, Object> config, String name, Object section) {
+        Map<String, Object> map = encode(section);
+        Object copy = copy(map);
+        if (sent.containsKey(name) && equals(sent.get(name), copy)) {
+            return;
+        }
+        sent.put(name, copy);
+        config.put(name, map);
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static Object copy(Object value) {
+        if (value instanceof Map) {
+            HashMap<Object, Object> copy = new HashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                copy.put(entry.getKey(), copy(entry.getValue()));
+            }
+            return copy;
+        } else if (value instanceof List || value instanceof Object[]) {
+            List<?> list = value instanceof List ? (List<?>) value : Arrays.asList((Object[]) value);
+            ArrayList<Object> copy = new ArrayList<>(list.size());
+            for (Object element : list) {
+                copy.add(copy(element));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    private static Map<String, Object> encode(Object section) {
+        if (section instanceof OrbTheme) {
+            return ((OrbTheme) section).toMap();
+        } else if (section instanceof OrbComposer) {
+            return ((OrbComposer) section).toMap();
+        } else if (section instanceof OrbHeader) {
+            return ((OrbHeader) section).toMap();
+        } else if (section instanceof OrbMenu) {
+            return ((OrbMenu) section).toMap();
+        } else if (section instanceof OrbSplash) {
+            return ((OrbSplash) section).toMap();
+        } else if (section instanceof OrbMediaUpload) {
+            return ((OrbMediaUpload) section).toMap();
+        }
+        return null;
+    }
 }
@@ -7,6 +7,17 @@ public class OrbMediaUpload {
     public Boolean all;
     public Boolean image;
     public Boolean file;
+    /**
+     * Images uploaded with {@code Orb.uploadBlob} are downscaled so that
+     * neither side exceeds this many pixels, 2048 if null. Set to 0 to upload
+     * images as they are.
+     */
+    public Integer imageMaxDimension;
+    /**
+     * The JPEG and WebP quality, 0-100, that downscaled images are
+     * re-encoded with, 85 if null.
+     */
+    public Integer imageQuality;
 
     public OrbMediaUpload(Boolean all, Boolean image, Boolean file) {
         this.all = all;
@@ -14,6 +25,16 @@ public class OrbMediaUpload {
         this.file = file;
     }
 
+    public OrbMediaUpload(Boolean all, Boolean image, Boolean file, Integer imageMaxDimension, Integer imageQuality) {
+        this(all, image, file);
+        this.imageMaxDimension = imageMaxDimension;
+        this.imageQuality = imageQuality;
+    }
+
+    /**
+     * Encodes the settings the Dart side uses. The image settings are only
+     * used natively.
+     */
     public Map<String, Object> toMap() {
         HashMap<String, Object> mediaUpload = new HashMap<>();
         mediaUpload.put("all", all);
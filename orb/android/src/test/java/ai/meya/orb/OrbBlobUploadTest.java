@@ -0,0 +1,124 @@
+package ai.meya.orb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OrbBlobUploadTest {
+    private final MockWebServer server = new MockWebServer();
+    private final OkHttpClient client = new OkHttpClient.Builder().retryOnConnectionFailure(false).build();
+    private long retryBaseDelay;
+
+    @Before
+    public void start() throws Exception {
+        server.start();
+        retryBaseDelay = OrbBlobUpload.retryBaseDelay;
+        OrbBlobUpload.retryBaseDelay = 10;
+    }
+
+    @After
+    public void stop() throws Exception {
+        OrbBlobUpload.retryBaseDelay = retryBaseDelay;
+        server.shutdown();
+    }
+
+    @Test
+    public void streamsTheBlobInChunks() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(201).setBody("b-1"));
+        final byte[] blob = blob(OrbBlobUpload.CHUNK_SIZE * 3 + 100);
+        final long[] progress = {0, 0, 0};
+        OrbBlobUpload upload = upload(blob, new Orb.UploadProgressListener() {
+            @Override
+            public void onProgress(long sent, long total) {
+                progress[0]++;
+                progress[1] = sent;
+                progress[2] = total;
+            }
+        });
+
+        String url = OrbBlobUpload.start(upload).get(5, TimeUnit.SECONDS);
+
+        assertEquals(blobUrl() + "/b-1", url);
+        RecordedRequest request = server.takeRequest();
+        assertEquals("POST", request.getMethod());
+        assertEquals("video/mp4", request.getHeader("Content-Type"));
+        assertArrayEquals(blob, request.getBody().readByteArray());
+        assertEquals(4, progress[0]);
+        assertEquals(blob.length, progress[1]);
+        assertEquals(blob.length, progress[2]);
+    }
+
+    @Test
+    public void retriesFromTheStartAfterServerErrors() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(201).setBody("b-2"));
+        byte[] blob = blob(1000);
+
+        String url = OrbBlobUpload.start(upload(blob, null)).get(5, TimeUnit.SECONDS);
+
+        assertEquals(blobUrl() + "/b-2", url);
+        assertEquals(2, server.getRequestCount());
+        server.takeRequest();
+        assertArrayEquals(blob, server.takeRequest().getBody().readByteArray());
+    }
+
+    @Test
+    public void failsWithoutRetryingClientErrors() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(413));
+
+        try {
+            OrbBlobUpload.start(upload(blob(1000), null)).get(5, TimeUnit.SECONDS);
+            fail("Expected the upload to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof OrbException);
+            assertEquals(413, ((OrbException) e.getCause()).details);
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    private OrbBlobUpload upload(final byte[] blob, Orb.UploadProgressListener listener) {
+        return new OrbBlobUpload(client, blobUrl(), new OrbBlobUpload.Source() {
+            @Override
+            public InputStream open() {
+                return new ByteArrayInputStream(blob);
+            }
+
+            @Override
+            public long length() {
+                return blob.length;
+            }
+        }, "video/mp4", listener);
+    }
+
+    private String blobUrl() {
+        OrbConnectionOptions options = new OrbConnectionOptions(
+                server.url("").toString().replaceAll("/$", ""), "app-test", "integration.orb.mobile"
+        );
+        return OrbBlobUpload.getBlobUrl(options);
+    }
+
+    private static byte[] blob(int length) {
+        byte[] blob = new byte[length];
+        Arrays.fill(blob, (byte) 'x');
+        for (int i = 0; i < length; i += 7) {
+            blob[i] = (byte) i;
+        }
+        return blob;
+    }
+}
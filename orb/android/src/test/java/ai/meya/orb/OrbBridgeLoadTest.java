@@ -0,0 +1,97 @@
+package ai.meya.orb;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.flutter.plugin.common.MethodCall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Soak tests of the bridge, replaying Dart side traffic against a real
+ * OrbPlugin through {@link OrbLoopbackMessenger}. They check what is
+ * delivered, not how fast: dispatch times are measured by the benchmark
+ * module's {@code OrbPluginBenchmark}.
+ */
+public class OrbBridgeLoadTest {
+    private static final int RATE = 2000;
+
+    @Test
+    public void queuesSubscriptionsUntilReady() throws InterruptedException {
+        OrbLoopbackMessenger messenger = new OrbLoopbackMessenger();
+        OrbPlugin plugin = messenger.attach();
+        OrbLoopbackTraffic traffic = new OrbLoopbackTraffic().ready().connected().firstConnect(10);
+
+        OrbLoopbackTraffic.Report report = traffic.replay(plugin, messenger, 0, false, 1000);
+
+        assertEquals(10, report.delivered);
+        List<MethodCall> received = messenger.getReceived();
+        assertEquals("subscribe", received.get(0).method);
+    }
+
+    @Test
+    public void deliversEventBurstsInDeltaMode() throws InterruptedException {
+        OrbLoopbackMessenger messenger = new OrbLoopbackMessenger();
+        OrbPlugin plugin = messenger.attach();
+        OrbLoopbackTraffic traffic = new OrbLoopbackTraffic()
+                .ready()
+                .connected()
+                .firstConnect(1000)
+                .eventBurst(2000)
+                .disconnected()
+                .connected()
+                .reconnect(5000)
+                .eventBurst(2000);
+
+        OrbLoopbackTraffic.Report report = traffic.replay(plugin, messenger, RATE, true, 5000);
+
+        assertEquals(traffic.getEventCount(), report.events);
+        assertEquals(traffic.getEventCount(), report.delivered);
+        assertTrue("Dropped " + report.dropped, report.dropped.isEmpty());
+        assertEquals(0, messenger.getCalls("resync"));
+    }
+
+    @Test
+    public void deliversEventBurstsToAnExecutor() throws InterruptedException {
+        OrbLoopbackMessenger messenger = new OrbLoopbackMessenger();
+        OrbPlugin plugin = messenger.attach();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        plugin.setListenerExecutor(executor);
+        OrbLoopbackTraffic traffic = new OrbLoopbackTraffic()
+                .ready()
+                .connected()
+                .firstConnect(100)
+                .eventBurst(5000);
+
+        try {
+            OrbLoopbackTraffic.Report report = traffic.replay(plugin, messenger, 0, true, 5000);
+
+            assertEquals(traffic.getEventCount(), report.delivered);
+            assertTrue("Dropped " + report.dropped, report.dropped.isEmpty());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void replaysRecordedTraffic() throws InterruptedException {
+        byte[] recording = new OrbLoopbackTraffic().ready().connected().firstConnect(50).eventBurst(50).toBytes();
+        OrbLoopbackTraffic traffic = OrbLoopbackTraffic.fromBytes(recording);
+        OrbLoopbackMessenger messenger = new OrbLoopbackMessenger();
+        OrbPlugin plugin = messenger.attach();
+        final OrbEventStore eventStore = new OrbEventStore();
+        plugin.setEventStore(eventStore);
+
+        OrbLoopbackTraffic.Report report = traffic.replay(plugin, messenger, 0, false, 1000);
+
+        assertEquals(100, report.delivered);
+        assertEquals(100, eventStore.size());
+        Map<String, Object> latest = eventStore.getLatestOfUserId("u-bot");
+        assertEquals("1650000000099-99", latest.get("id"));
+    }
+}
@@ -0,0 +1,87 @@
+package ai.meya.orb;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OrbCompactMapTest {
+    @Test
+    public void equalsTheEventItCompacts() {
+        Map<String, Object> event = event(1, "u-user");
+
+        Map<String, Object> compact = OrbCompactMap.of(event);
+
+        assertEquals(event, compact);
+        assertEquals(compact, event);
+        assertEquals(event.hashCode(), compact.hashCode());
+        assertEquals("u-user", ((Map<?, ?>) compact.get("data")).get("user_id"));
+        assertTrue(compact.containsKey(new String("type")));
+        assertSame(compact, OrbCompactMap.of(compact));
+        try {
+            compact.put("type", "meya.text.event.ask");
+            fail("Expected the map to be immutable");
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void sharesKeysAndCommonValues() {
+        List<Map<String, Object>> eventStream = OrbCompactMap.listOf(Arrays.asList(
+                event(2, new String("u-user")), event(1, new String("u-user"))
+        ));
+
+        Map<?, ?> first = eventStream.get(0);
+        Map<?, ?> second = eventStream.get(1);
+        assertSame(first.keySet().iterator().next(), second.keySet().iterator().next());
+        assertSame(((Map<?, ?>) first.get("data")).get("user_id"), ((Map<?, ?>) second.get("data")).get("user_id"));
+        assertSame(first.get("type"), second.get("type"));
+        assertNotSame(first.get("id"), second.get("id"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void leavesTextAsItIs() {
+        Map<String, Object> event = event(1, "u-user");
+        String text = new String("Hello");
+        ((Map<String, Object>) event.get("data")).put("text", text);
+
+        Map<?, ?> first = OrbCompactMap.of(event);
+        ((Map<String, Object>) event.get("data")).put("text", new String("Hello"));
+        Map<?, ?> second = OrbCompactMap.of(event);
+
+        assertSame(text, ((Map<?, ?>) first.get("data")).get("text"));
+        assertNotSame(((Map<?, ?>) first.get("data")).get("text"), ((Map<?, ?>) second.get("data")).get("text"));
+    }
+
+    @Test
+    public void forgetsValuesWhenTablesAreCleared() {
+        Map<?, ?> first = OrbCompactMap.of(event(1, new String("u-cleared")));
+        OrbCompactMap.clearTables();
+        Map<?, ?> second = OrbCompactMap.of(event(2, new String("u-cleared")));
+
+        assertEquals(((Map<?, ?>) first.get("data")).get("user_id"), ((Map<?, ?>) second.get("data")).get("user_id"));
+        assertNotSame(((Map<?, ?>) first.get("data")).get("user_id"), ((Map<?, ?>) second.get("data")).get("user_id"));
+    }
+
+    private static Map<String, Object> event(int index, String userId) {
+        HashMap<String, Object> data = new HashMap<>();
+        data.put("text", "Message " + index);
+        data.put("user_id", userId);
+        data.put("markdown", Arrays.<Object>asList("linkify", "breaks"));
+        data.put("context", new HashMap<String, Object>());
+        HashMap<String, Object> event = new HashMap<>();
+        event.put("id", new String("1650000000000-" + index));
+        event.put("type", new String("meya.text.event.say"));
+        event.put("data", data);
+        return event;
+    }
+}
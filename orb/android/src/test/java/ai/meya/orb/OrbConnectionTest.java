@@ -0,0 +1,184 @@
+package ai.meya.orb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.ByteString;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs an {@link OrbConnection} against a local websocket stand-in for the
+ * Orb gateway.
+ */
+public class OrbConnectionTest {
+    private final MockWebServer server = new MockWebServer();
+    private final LinkedBlockingQueue<Map<String, Object>> published = new LinkedBlockingQueue<>();
+    private final LinkedBlockingQueue<WebSocket> sockets = new LinkedBlockingQueue<>();
+    private OrbConnection connection;
+
+    @Before
+    public void start() throws Exception {
+        server.start();
+        OrbConnectionOptions options = new OrbConnectionOptions(
+                server.url("/").toString(), "app-test", "integration.orb.mobile"
+        );
+        options.deviceId = "device-test";
+        options.deviceToken = "token-test";
+        connection = new OrbConnection(options, new OkHttpClient(), null, "2.8.1");
+        connection.setListenerExecutor(null);
+    }
+
+    @After
+    public void stop() throws Exception {
+        connection.release();
+        server.shutdown();
+    }
+
+    @Test
+    public void receivesTheHistoryOnFirstConnect() throws Exception {
+        acceptConnection(event(1, "Hello"), event(2, "How can I help?"));
+        final LinkedBlockingQueue<List<Map<String, Object>>> history = new LinkedBlockingQueue<>();
+        connection.addFirstConnectListener(new Orb.FirstConnectListener() {
+            @Override
+            public void onFirstConnect(List<Map<String, Object>> eventStream) {
+                history.add(eventStream);
+            }
+        });
+
+        connection.connect();
+
+        List<Map<String, Object>> eventStream = history.poll(5, TimeUnit.SECONDS);
+        assertNotNull(eventStream);
+        assertEquals("1650000000002-0", eventStream.get(0).get("id"));
+        assertEquals("1650000000001-0", eventStream.get(1).get("id"));
+        RecordedRequest request = server.takeRequest();
+        assertEquals("/gateway/v2/orb_mobile/app-test/integration.orb.mobile", request.getRequestUrl().encodedPath());
+        assertEquals("2.8.1", request.getRequestUrl().queryParameter("version"));
+        assertEquals(connection.getThreadId(), request.getRequestUrl().queryParameter("thread_id"));
+        assertEquals("meya.orb.event.device.connect", publishedType());
+    }
+
+    @Test
+    public void publishesAndReceivesEvents() throws Exception {
+        acceptConnection();
+        final LinkedBlockingQueue<Map<String, Object>> received = new LinkedBlockingQueue<>();
+        connection.addEventListener(new Orb.EventListener() {
+            @Override
+            public void onEvent(Map<String, Object> event, List<Map<String, Object>> eventStream) {
+                received.add(event);
+            }
+        });
+        connection.connect();
+        assertEquals("meya.orb.event.device.connect", publishedType());
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("text", "Hi");
+        Map<String, Object> say = new HashMap<>();
+        say.put("type", "meya.text.event.say");
+        say.put("data", data);
+        connection.publishEvent(say).get(5, TimeUnit.SECONDS);
+        assertEquals("meya.text.event.say", publishedType());
+
+        Map<String, Object> publish = new HashMap<>();
+        publish.put("event", event(3, "Hi there"));
+        sockets.take().send(entry("meya.orb.entry.ws.publish_request", publish));
+        Map<String, Object> event = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(event);
+        assertEquals("1650000000003-0", event.get("id"));
+    }
+
+    @Test
+    public void reconnectsWhenTheSocketCloses() throws Exception {
+        acceptConnection(event(1, "Hello"));
+        acceptConnection(event(1, "Hello"), event(2, "Welcome back"));
+        final LinkedBlockingQueue<List<Map<String, Object>>> reconnected = new LinkedBlockingQueue<>();
+        connection.addReconnectListener(new Orb.ReconnectListener() {
+            @Override
+            public void onReconnect(List<Map<String, Object>> eventStream) {
+                reconnected.add(eventStream);
+            }
+        });
+        connection.connect();
+        assertEquals("meya.orb.event.device.connect", publishedType());
+
+        sockets.take().close(1001, "Going away");
+
+        List<Map<String, Object>> eventStream = reconnected.poll(5, TimeUnit.SECONDS);
+        assertNotNull(eventStream);
+        assertEquals(2, eventStream.size());
+        assertTrue(connection.isConnected());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    /**
+     * Accepts the next socket, answering with a connected entry carrying the
+     * given history.
+     */
+    private void acceptConnection(Map<String, Object>... history) {
+        final Map<String, Object> data = new HashMap<>();
+        data.put("grid_version", "test");
+        data.put("grid_user_id", "u-grid");
+        data.put("user_id", "user-test");
+        data.put("session_token", "session-test");
+        data.put("heartbeat_interval_seconds", 30);
+        data.put("history_events", new ArrayList<>(Arrays.asList(history)));
+        server.enqueue(new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                sockets.add(webSocket);
+                webSocket.send(entry("meya.orb.entry.ws.connected_request", data));
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public void onMessage(WebSocket webSocket, ByteString bytes) {
+                published.add((Map<String, Object>) new OrbMsgPackReader(bytes.toByteArray()).read());
+            }
+        }));
+    }
+
+    @SuppressWarnings("unchecked")
+    private String publishedType() throws InterruptedException {
+        Map<String, Object> entry = published.poll(5, TimeUnit.SECONDS);
+        assertNotNull(entry);
+        assertEquals("meya.orb.entry.ws.publish_request", entry.get("type"));
+        Map<String, Object> data = (Map<String, Object>) entry.get("data");
+        return (String) ((Map<String, Object>) data.get("event")).get("type");
+    }
+
+    private static ByteString entry(String type, Map<String, Object> data) {
+        Map<String, Object> entry = new HashMap<>();
+        entry.put("type", type);
+        entry.put("data", data);
+        return ByteString.of(new OrbMsgPackWriter().write(entry).toByteArray());
+    }
+
+    private static Map<String, Object> event(int index, String text) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("text", text);
+        Map<String, Object> event = new HashMap<>();
+        event.put("id", (1650000000000L + index) + "-0");
+        event.put("type", "meya.text.event.say");
+        event.put("data", data);
+        return event;
+    }
+}
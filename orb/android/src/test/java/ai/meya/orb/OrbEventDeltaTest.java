@@ -0,0 +1,77 @@
+package ai.meya.orb;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OrbEventDeltaTest {
+    @Test
+    public void removesCompactedEvents() {
+        OrbEventDelta delta = new OrbEventDelta();
+        assertTrue(delta.apply(frame(1, true, Arrays.asList(event(3, "typing"), event(2, "say"), event(1, "typing")), null)));
+
+        assertTrue(delta.apply(frame(2, false, Arrays.asList(event(4, "typing")), Arrays.asList(id(3)))));
+
+        List<Map<String, Object>> eventStream = delta.getEventStream();
+        assertEquals(3, eventStream.size());
+        assertEquals(id(4), eventStream.get(0).get("id"));
+        assertEquals(id(2), eventStream.get(1).get("id"));
+        assertEquals(id(1), eventStream.get(2).get("id"));
+
+        assertTrue(delta.apply(frame(3, false, Arrays.asList(event(5, "say")), Arrays.asList(id(1)))));
+        eventStream = delta.getEventStream();
+        assertEquals(3, eventStream.size());
+        assertEquals(id(5), eventStream.get(0).get("id"));
+        assertEquals(id(2), eventStream.get(2).get("id"));
+    }
+
+    @Test
+    public void comparesOtherIdsAsStrings() {
+        assertTrue(OrbEventDelta.compareIds("1650000000000-2", "1650000000000-10") < 0);
+        assertTrue(OrbEventDelta.compareIds("local-b", "local-a") > 0);
+        assertTrue(OrbEventDelta.compareIds("local-a", "1650000000000-1") > 0);
+    }
+
+    @Test
+    public void ignoresRemovalsOfMissedFrames() {
+        OrbEventDelta delta = new OrbEventDelta();
+        assertTrue(delta.apply(frame(1, true, Arrays.asList(event(2, "typing"), event(1, "say")), null)));
+
+        assertFalse(delta.apply(frame(3, false, Arrays.asList(event(3, "typing")), Arrays.asList(id(2)))));
+
+        assertEquals(2, delta.getEventStream().size());
+    }
+
+    private static Map<String, Object> frame(
+            int sequence,
+            boolean full,
+            List<Map<String, Object>> events,
+            List<String> removed
+    ) {
+        Map<String, Object> frame = new HashMap<>();
+        frame.put("sequence", sequence);
+        frame.put("full", full);
+        frame.put("events", new ArrayList<>(events));
+        if (removed != null) frame.put("removed", removed);
+        return frame;
+    }
+
+    private static Map<String, Object> event(int index, String type) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("id", id(index));
+        event.put("type", type);
+        return event;
+    }
+
+    private static String id(int index) {
+        return (1650000000000L + index) + "-0";
+    }
+}
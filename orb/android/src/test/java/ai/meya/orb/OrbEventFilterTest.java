@@ -0,0 +1,98 @@
+package ai.meya.orb;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OrbEventFilterTest {
+    private static final String SAY = "meya.text.event.say";
+    private static final String ASK = "meya.text.event.ask";
+    private static final String TYPING = "meya.presence.event.typing.on";
+
+    @Test
+    public void subscribesToTheTypesOfAllListeners() {
+        OrbLoopbackMessenger messenger = new OrbLoopbackMessenger();
+        OrbPlugin plugin = attach(messenger);
+        List<String> says = new ArrayList<>();
+        List<String> asks = new ArrayList<>();
+        Orb.EventListener sayListener = listener(says);
+        Orb.EventListener askListener = listener(asks);
+
+        plugin.addListener(plugin.eventListeners, "event", sayListener, false, Collections.singleton(SAY));
+        plugin.addListener(plugin.eventListeners, "event", askListener, false, Collections.singleton(ASK));
+
+        assertEquals(new HashSet<>(Arrays.asList(SAY, ASK)), new HashSet<>(types(messenger)));
+        messenger.receive("event", Collections.singletonList(event(1, SAY)));
+        messenger.receive("event", Collections.singletonList(event(2, TYPING)));
+        messenger.receive("event", Collections.singletonList(event(3, ASK)));
+        assertEquals(Collections.singletonList(SAY + " 1"), says);
+        assertEquals(Collections.singletonList(ASK + " 3 in 2"), asks);
+
+        plugin.removeListener(plugin.eventListeners, "event", askListener);
+        assertEquals(Collections.singletonList(SAY), types(messenger));
+    }
+
+    @Test
+    public void subscribesToEveryTypeForUnfilteredListeners() {
+        OrbLoopbackMessenger messenger = new OrbLoopbackMessenger();
+        OrbPlugin plugin = attach(messenger);
+        List<String> received = new ArrayList<>();
+
+        plugin.addListener(plugin.eventListeners, "event", listener(new ArrayList<String>()), false, Collections.singleton(SAY));
+        plugin.addListener(plugin.eventListeners, "event", listener(received), false);
+
+        assertNull(types(messenger));
+        messenger.receive("event", Collections.singletonList(event(1, TYPING)));
+        assertEquals(Collections.singletonList(TYPING + " 1"), received);
+    }
+
+    private static OrbPlugin attach(OrbLoopbackMessenger messenger) {
+        OrbPlugin plugin = messenger.attach();
+        plugin.setListenerExecutor(new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        });
+        messenger.ready();
+        return plugin;
+    }
+
+    /**
+     * @return a listener that records the received events' types and
+     * indexes, and the size of the event stream if it has other events.
+     */
+    private static Orb.EventListener listener(final List<String> received) {
+        return new Orb.EventListener() {
+            @Override
+            public void onEvent(Map<String, Object> event, List<Map<String, Object>> eventStream) {
+                String id = (String) event.get("id");
+                String entry = event.get("type") + " " + id.substring(id.indexOf('-') + 1);
+                received.add(eventStream.size() > 1 ? entry + " in " + eventStream.size() : entry);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> types(OrbLoopbackMessenger messenger) {
+        return (List<String>) messenger.getSubscription("event").get("types");
+    }
+
+    private static Map<String, Object> event(int index, String type) {
+        HashMap<String, Object> event = new HashMap<>();
+        event.put("id", (1650000000000L + index) + "-" + index);
+        event.put("type", type);
+        event.put("data", new HashMap<String, Object>());
+        return event;
+    }
+}
@@ -0,0 +1,72 @@
+package ai.meya.orb;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OrbEventPageTest {
+    @Test
+    public void pagesThroughTheEventStream() throws Exception {
+        OrbLoopbackMessenger messenger = new OrbLoopbackMessenger();
+        OrbPlugin plugin = messenger.attach();
+        messenger.ready();
+        messenger.connected("t-pages");
+        messenger.receive("firstConnect", events(45));
+
+        OrbEventPage newest = plugin.getEvents(null, 20).get(1, TimeUnit.SECONDS);
+        assertEquals(20, newest.events.size());
+        assertEquals(id(45), newest.events.get(0).get("id"));
+        assertEquals(id(26), newest.cursor);
+        assertTrue(newest.hasMore());
+
+        OrbEventPage older = plugin.getEvents(newest.cursor, 20).get(1, TimeUnit.SECONDS);
+        assertEquals(id(25), older.events.get(0).get("id"));
+
+        OrbEventPage oldest = plugin.getEvents(older.cursor, 20).get(1, TimeUnit.SECONDS);
+        assertEquals(5, oldest.events.size());
+        assertEquals(id(1), oldest.events.get(4).get("id"));
+        assertNull(oldest.cursor);
+        assertFalse(oldest.hasMore());
+    }
+
+    @Test
+    public void startsAfterTheGivenEvent() throws Exception {
+        OrbLoopbackMessenger messenger = new OrbLoopbackMessenger();
+        OrbPlugin plugin = messenger.attach();
+        messenger.ready();
+        messenger.receive("firstConnect", events(100));
+
+        OrbEventPage page = plugin.getEvents(id(10), 20).get(1, TimeUnit.SECONDS);
+
+        assertEquals(9, page.events.size());
+        assertEquals(id(9), page.events.get(0).get("id"));
+        assertNull(page.cursor);
+    }
+
+    /**
+     * @return events with ids 1 to {@code count}, newest first.
+     */
+    private static List<Map<String, Object>> events(int count) {
+        ArrayList<Map<String, Object>> events = new ArrayList<>();
+        for (int i = count; i >= 1; i--) {
+            Map<String, Object> event = new HashMap<>();
+            event.put("id", id(i));
+            event.put("type", "meya.text.event.say");
+            events.add(event);
+        }
+        return events;
+    }
+
+    private static String id(int index) {
+        return (1650000000000L + index) + "-0";
+    }
+}
@@ -0,0 +1,53 @@
+package ai.meya.orb;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OrbEventStoreTest {
+    @Test
+    public void keepsEventsCompactedOutOfTheStream() {
+        OrbEventStore store = new OrbEventStore();
+        store.setThreadId("t-1");
+        store.sync(Arrays.asList(event(3, "typing"), event(2, "say"), event(1, "typing")));
+
+        store.sync(Arrays.asList(event(4, "typing"), event(2, "say")));
+
+        assertEquals(4, store.size());
+        assertTrue(store.contains(id(1)));
+        assertEquals(id(4), store.getLatestOfType("typing").get("id"));
+    }
+
+    @Test
+    public void clearsWhenTheThreadChanges() {
+        OrbEventStore store = new OrbEventStore();
+        store.setThreadId("t-1");
+        store.sync(Arrays.asList(event(2, "say"), event(1, "say")));
+
+        store.setThreadId("t-1");
+        assertEquals(2, store.size());
+
+        store.setThreadId("t-2");
+        store.sync(Collections.singletonList(event(3, "say")));
+        assertEquals(1, store.size());
+        assertEquals(id(3), store.get(0).get("id"));
+    }
+
+    private static Map<String, Object> event(int index, String type) {
+        HashMap<String, Object> event = new HashMap<>();
+        event.put("id", id(index));
+        event.put("type", type);
+        event.put("data", new HashMap<String, Object>());
+        return event;
+    }
+
+    private static String id(int index) {
+        return (1650000000000L + index) + "-" + index;
+    }
+}
@@ -0,0 +1,84 @@
+package ai.meya.orb;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OrbFutureTest {
+    @Test
+    public void completesCommandsQueuedUntilReady() throws Exception {
+        OrbLoopbackMessenger messenger = new OrbLoopbackMessenger();
+        OrbPlugin plugin = messenger.attach();
+
+        OrbFuture<Void> future = plugin.publishEvent(event());
+        assertFalse(future.isDone());
+
+        messenger.ready();
+        future.get(1, TimeUnit.SECONDS);
+        assertEquals(1, messenger.getCalls("publishEvent"));
+    }
+
+    @Test
+    public void doesNotSendCancelledCommands() {
+        OrbLoopbackMessenger messenger = new OrbLoopbackMessenger();
+        OrbPlugin plugin = messenger.attach();
+
+        OrbFuture<Void> future = plugin.publishEvent(event());
+        assertTrue(future.cancel(false));
+        messenger.ready();
+
+        assertTrue(future.isCancelled());
+        assertEquals(0, messenger.getCalls("publishEvent"));
+    }
+
+    @Test
+    public void callsCallbacksWhenDone() throws InterruptedException {
+        final OrbFuture<String> future = new OrbFuture<>();
+        final Throwable[] failure = new Throwable[1];
+        future.addCallback(new OrbFuture.Callback<String>() {
+            @Override
+            public void onSuccess(String result) {
+                fail("Unexpected result " + result);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                failure[0] = error;
+            }
+        });
+
+        future.fail(new OrbException("disconnected", "Orb has no connection", null));
+        assertFalse(future.complete("late"));
+
+        assertTrue(failure[0] instanceof OrbException);
+        assertEquals("disconnected", ((OrbException) failure[0]).code);
+        try {
+            future.get();
+            fail("Expected an ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() == failure[0]);
+        }
+    }
+
+    @Test(expected = CancellationException.class)
+    public void throwsWhenGettingCancelledFutures() throws Exception {
+        OrbFuture<Void> future = new OrbFuture<>();
+        future.cancel(true);
+        future.get();
+    }
+
+    private static Map<String, Object> event() {
+        Map<String, Object> event = new HashMap<>();
+        event.put("type", "meya.text.event.say");
+        return event;
+    }
+}
@@ -0,0 +1,35 @@
+package ai.meya.orb;
+
+import org.junit.Test;
+
+import ai.meya.orb.config.OrbConfig;
+import ai.meya.orb.config.OrbMediaUpload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OrbImageCompressorTest {
+    @Test
+    public void samplesDownToTheMaxDimension() {
+        assertEquals(1, OrbImageCompressor.getSampleSize(1600, 1200, 2048));
+        assertEquals(1, OrbImageCompressor.getSampleSize(4000, 3000, 2048));
+        assertEquals(2, OrbImageCompressor.getSampleSize(4096, 3072, 2048));
+        assertEquals(4, OrbImageCompressor.getSampleSize(3000, 8000, 1024));
+        assertEquals(8, OrbImageCompressor.getSampleSize(3000, 8192, 1024));
+    }
+
+    @Test
+    public void usesTheMediaUploadConfig() {
+        OrbImageCompressor defaults = OrbImageCompressor.forConfig(null);
+        assertEquals(OrbImageCompressor.DEFAULT_MAX_DIMENSION, defaults.maxDimension);
+        assertEquals(OrbImageCompressor.DEFAULT_QUALITY, defaults.quality);
+
+        OrbConfig config = new OrbConfig().setMediaUpload(new OrbMediaUpload(true, null, null, 1280, 120));
+        OrbImageCompressor configured = OrbImageCompressor.forConfig(config);
+        assertEquals(1280, configured.maxDimension);
+        assertEquals(100, configured.quality);
+
+        config.setMediaUpload(new OrbMediaUpload(true, null, null, 0, null));
+        assertNull(OrbImageCompressor.forConfig(config));
+    }
+}
@@ -0,0 +1,46 @@
+package ai.meya.orb;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class OrbJournalFileTest {
+    @Test
+    public void compactsToTheLatestEvents() throws Exception {
+        File path = File.createTempFile("journal", null);
+        OrbJournalFile file = new OrbJournalFile(path);
+        for (int i = 1; i <= 4; i++) {
+            append(file, i);
+        }
+
+        file.replace(file.writeCompacted(file.copyLast(2)));
+
+        List<OrbEvent> events = file.readLast(10);
+        assertEquals(2, events.size());
+        assertEquals(id(4), events.get(0).getId());
+        assertEquals(id(3), events.get(1).getId());
+        assertEquals(id(4), file.getLastEventId());
+        assertFalse(file.contains(id(2)));
+        file.delete();
+    }
+
+    private static void append(OrbJournalFile file, int index) throws Exception {
+        Map<String, Object> event = new HashMap<>();
+        event.put("id", id(index));
+        event.put("type", "meya.text.event.say");
+        event.put("data", new HashMap<String, Object>());
+        OrbMsgPackWriter writer = new OrbMsgPackWriter();
+        OrbEvent.of(event).writeTo(writer);
+        file.append(id(index), writer.buffer(), writer.size());
+    }
+
+    private static String id(int index) {
+        return "1650000000000-" + index;
+    }
+}
@@ -0,0 +1,306 @@
+package ai.meya.orb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.StandardMethodCodec;
+
+/**
+ * In-process stand-in for the Dart side of the Orb plugin, to run a real
+ * {@link OrbPlugin} on a plain JVM.
+ *
+ * Calls from the plugin (subscribe, resync, configure, ...) are answered the
+ * way plugin.dart does, and the Dart side callbacks are sent back like
+ * app.dart sends them: only when subscribed, as msgpack frames over the
+ * binary channel when the subscription asks for it, and as deltas when the
+ * subscription is in delta mode. Everything runs on the calling thread.
+ */
+class OrbLoopbackMessenger implements BinaryMessenger {
+    private final Map<String, BinaryMessageHandler> handlers = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Object>> subscriptions = new HashMap<>();
+    private final Map<String, Integer> sequences = new HashMap<>();
+    // How many events of the stream each delta subscription has been sent.
+    private final Map<String, Integer> deltaSizes = new HashMap<>();
+    private final ConcurrentHashMap<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+    private final List<MethodCall> received = Collections.synchronizedList(new ArrayList<MethodCall>());
+    // The Dart side event stream, newest first.
+    private final ArrayList<Map<String, Object>> eventStream = new ArrayList<>();
+    private final HashSet<String> eventIds = new HashSet<>();
+
+    /**
+     * @return a plugin attached to this messenger.
+     */
+    OrbPlugin attach() {
+        OrbPlugin plugin = new OrbPlugin();
+        plugin.attach(this);
+        return plugin;
+    }
+
+    @Override
+    public void send(String channel, ByteBuffer message) {
+        send(channel, message, null);
+    }
+
+    @Override
+    public void send(String channel, ByteBuffer message, BinaryReply callback) {
+        if (!"orb".equals(channel)) {
+            if (callback != null) callback.reply(null);
+            return;
+        }
+        message.rewind();
+        MethodCall call = StandardMethodCodec.INSTANCE.decodeMethodCall(message);
+        received.add(call);
+        count(call.method);
+        Object result = onMethodCall(call);
+        if (callback != null) {
+            callback.reply(StandardMethodCodec.INSTANCE.encodeSuccessEnvelope(result));
+        }
+    }
+
+    @Override
+    public void setMessageHandler(String channel, BinaryMessageHandler handler) {
+        if (handler == null) {
+            handlers.remove(channel);
+        } else {
+            handlers.put(channel, handler);
+        }
+    }
+
+    /**
+     * @return how many times the plugin called the given method.
+     */
+    int getCalls(String method) {
+        AtomicInteger count = calls.get(method);
+        return count != null ? count.get() : 0;
+    }
+
+    List<MethodCall> getReceived() {
+        synchronized (received) {
+            return new ArrayList<>(received);
+        }
+    }
+
+    synchronized boolean isSubscribed(String name) {
+        return subscriptions.containsKey(name);
+    }
+
+    void ready() {
+        invoke("ready", null);
+    }
+
+    void connected(String threadId) {
+        HashMap<String, Object> arguments = new HashMap<>();
+        arguments.put("threadId", threadId);
+        invoke("connected", arguments);
+    }
+
+    void disconnected() {
+        invoke("disconnected", null);
+    }
+
+    /**
+     * Adds events received from the Orb gateway to the event stream, and
+     * sends the "eventStream" callback followed by the given one, like the
+     * Dart OrbConnection does.
+     *
+     * @param callback "firstConnect", "reconnect" or "event".
+     * @return the events that were new.
+     */
+    synchronized List<Map<String, Object>> receive(String callback, List<Map<String, Object>> events) {
+        ArrayList<Map<String, Object>> added = new ArrayList<>();
+        for (Map<String, Object> event : events) {
+            String id = (String) event.get("id");
+            if (eventIds.add(id)) added.add(event);
+        }
+        if (added.isEmpty()) {
+            return added;
+        }
+        eventStream.addAll(0, added);
+        sendEventStream("eventStream");
+        if ("event".equals(callback)) {
+            sendEvent(added.get(0));
+        } else if (subscriptions.containsKey(callback)) {
+            HashMap<String, Object> arguments = new HashMap<>();
+            arguments.put("eventStream", new ArrayList<>(eventStream));
+            invokeEvent(callback, arguments);
+        }
+        return added;
+    }
+
+    private Object onMethodCall(MethodCall call) {
+        Map<String, Object> arguments = call.arguments();
+        switch (call.method) {
+            case "subscribe": {
+                String name = (String) arguments.get("name");
+                @SuppressWarnings("unchecked")
+                Map<String, Object> options = (Map<String, Object>) arguments.get("options");
+                synchronized (this) {
+                    subscriptions.put(name, options != null ? options : new HashMap<String, Object>());
+                    sequences.remove(name);
+                    deltaSizes.remove(name);
+                }
+                return "Subscribed to " + name;
+            }
+            case "unsubscribe": {
+                String name = (String) arguments.get("name");
+                synchronized (this) {
+                    subscriptions.remove(name);
+                    sequences.remove(name);
+                    deltaSizes.remove(name);
+                }
+                return "Un-subscribed from " + name;
+            }
+            case "resync": {
+                String name = (String) arguments.get("name");
+                synchronized (this) {
+                    sequences.remove(name);
+                    deltaSizes.remove(name);
+                    if ("event".equals(name)) {
+                        sendEvent(null);
+                    } else if ("eventStream".equals(name)) {
+                        sendEventStream(name);
+                    }
+                }
+                return "Resync called for " + name;
+            }
+            case "getEvents": {
+                String before = (String) arguments.get("before");
+                int limit = (Integer) arguments.get("limit");
+                synchronized (this) {
+                    int start = 0;
+                    if (before != null) {
+                        while (start < eventStream.size() && !before.equals(eventStream.get(start).get("id"))) start++;
+                        start++;
+                    }
+                    int end = Math.min(start + limit, eventStream.size());
+                    List<Map<String, Object>> page = new ArrayList<>(eventStream.subList(start, end));
+                    HashMap<String, Object> result = new HashMap<>();
+                    result.put("events", page);
+                    result.put("cursor", end < eventStream.size() && !page.isEmpty() ? page.get(page.size() - 1).get("id") : null);
+                    return result;
+                }
+            }
+            default:
+                return call.method + " called";
+        }
+    }
+
+    private void sendEvent(Map<String, Object> event) {
+        if (!subscriptions.containsKey("event") || (event != null && !accepts("event", event))) {
+            return;
+        }
+        Map<String, Object> arguments = eventStreamArguments("event");
+        arguments.put("event", event);
+        invokeEvent("event", arguments);
+    }
+
+    private void sendEventStream(String name) {
+        if (subscriptions.containsKey(name)) {
+            invokeEvent(name, eventStreamArguments(name));
+        }
+    }
+
+    /**
+     * Mirrors _eventStreamArguments in plugin.dart.
+     */
+    private Map<String, Object> eventStreamArguments(String name) {
+        HashMap<String, Object> arguments = new HashMap<>();
+        if (!Boolean.TRUE.equals(subscriptions.get(name).get("delta"))) {
+            arguments.put("eventStream", filter(name, eventStream));
+            return arguments;
+        }
+        // Events are only ever added here, so the events sent before are
+        // always still in the stream and the delta is its newest events.
+        Integer previous = deltaSizes.get(name);
+        boolean full = previous == null;
+        List<Map<String, Object>> events = filter(
+                name, eventStream.subList(0, eventStream.size() - (full ? 0 : previous))
+        );
+        Integer sequence = sequences.get(name);
+        sequence = sequence != null ? sequence + 1 : 1;
+        sequences.put(name, sequence);
+        deltaSizes.put(name, eventStream.size());
+        arguments.put("sequence", sequence);
+        arguments.put("full", full);
+        arguments.put("events", events);
+        return arguments;
+    }
+
+    /**
+     * Mirrors _accepts in plugin.dart.
+     */
+    private boolean accepts(String name, Map<String, Object> event) {
+        List<?> types = (List<?>) subscriptions.get(name).get("types");
+        return types == null || types.contains(event.get("type"));
+    }
+
+    /**
+     * Mirrors _filter in plugin.dart.
+     */
+    private List<Map<String, Object>> filter(String name, List<Map<String, Object>> events) {
+        ArrayList<Map<String, Object>> filtered = new ArrayList<>(events.size());
+        for (Map<String, Object> event : events) {
+            if (accepts(name, event)) filtered.add(event);
+        }
+        return filtered;
+    }
+
+    /**
+     * @return the options of the subscription, or null if not subscribed.
+     */
+    synchronized Map<String, Object> getSubscription(String name) {
+        return subscriptions.get(name);
+    }
+
+    private void invokeEvent(String method, Map<String, Object> arguments) {
+        if (!Boolean.TRUE.equals(subscriptions.get(method).get("binary"))) {
+            invoke(method, arguments);
+            return;
+        }
+        HashMap<String, Object> frame = new HashMap<>();
+        frame.put("method", method);
+        frame.put("arguments", arguments);
+        byte[] bytes = new OrbMsgPackWriter().write(frame).toByteArray();
+        BinaryMessageHandler handler = handlers.get("orb/binary");
+        if (handler != null) {
+            ByteBuffer message = ByteBuffer.allocateDirect(bytes.length);
+            message.put(bytes);
+            message.flip();
+            handler.onMessage(message, new NoReply());
+        }
+    }
+
+    private void invoke(String method, Object arguments) {
+        BinaryMessageHandler handler = handlers.get("orb");
+        if (handler == null) {
+            throw new IllegalStateException("The plugin isn't attached");
+        }
+        ByteBuffer message = StandardMethodCodec.INSTANCE.encodeMethodCall(new MethodCall(method, arguments));
+        message.rewind();
+        handler.onMessage(message, new NoReply());
+    }
+
+    private void count(String method) {
+        AtomicInteger count = calls.get(method);
+        if (count == null) {
+            AtomicInteger created = new AtomicInteger();
+            count = calls.putIfAbsent(method, created);
+            if (count == null) count = created;
+        }
+        count.incrementAndGet();
+    }
+
+    private static class NoReply implements BinaryReply {
+        @Override
+        public void reply(ByteBuffer reply) {}
+    }
+}
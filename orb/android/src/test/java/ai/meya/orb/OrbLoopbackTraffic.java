@@ -0,0 +1,254 @@
+package ai.meya.orb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Recorded Dart side traffic, replayed against a plugin through an
+ * {@link OrbLoopbackMessenger} at a given rate.
+ *
+ * A recording is a list of frames: "ready", "connected", "disconnected", or
+ * a batch of events received with the "firstConnect", "reconnect" or
+ * "event" callback. It can be saved to and read from msgpack bytes.
+ */
+class OrbLoopbackTraffic {
+    static class Frame {
+        final String callback;
+        final List<Map<String, Object>> events;
+
+        Frame(String callback, List<Map<String, Object>> events) {
+            this.callback = callback;
+            this.events = events;
+        }
+    }
+
+    static class Report {
+        final int frames;
+        final int events;
+        final long nanos;
+        final OrbHistogram.Snapshot latency;
+        final int delivered;
+        final Set<String> dropped;
+
+        Report(int frames, int events, long nanos, OrbHistogram.Snapshot latency, int delivered, Set<String> dropped) {
+            this.frames = frames;
+            this.events = events;
+            this.nanos = nanos;
+            this.latency = latency;
+            this.delivered = delivered;
+            this.dropped = dropped;
+        }
+
+        /**
+         * @return the events sent per second.
+         */
+        double getThroughput() {
+            return nanos > 0 ? events * 1e9 / nanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return frames + " frames, " + events + " events in " + TimeUnit.NANOSECONDS.toMillis(nanos) + "ms ("
+                    + Math.round(getThroughput()) + " events/s), " + delivered + " delivered, "
+                    + dropped.size() + " dropped, latency (us) " + latency;
+        }
+    }
+
+    private static final long START = 1650000000000L;
+
+    final ArrayList<Frame> frames = new ArrayList<>();
+    private int nextEvent = 0;
+
+    OrbLoopbackTraffic ready() {
+        frames.add(new Frame("ready", Collections.<Map<String, Object>>emptyList()));
+        return this;
+    }
+
+    OrbLoopbackTraffic connected() {
+        frames.add(new Frame("connected", Collections.<Map<String, Object>>emptyList()));
+        return this;
+    }
+
+    OrbLoopbackTraffic disconnected() {
+        frames.add(new Frame("disconnected", Collections.<Map<String, Object>>emptyList()));
+        return this;
+    }
+
+    /**
+     * A first connect with a history of {@code count} events.
+     */
+    OrbLoopbackTraffic firstConnect(int count) {
+        frames.add(new Frame("firstConnect", newEvents(count)));
+        return this;
+    }
+
+    /**
+     * A reconnect whose history has {@code count} new events.
+     */
+    OrbLoopbackTraffic reconnect(int count) {
+        frames.add(new Frame("reconnect", newEvents(count)));
+        return this;
+    }
+
+    /**
+     * {@code count} events received one by one.
+     */
+    OrbLoopbackTraffic eventBurst(int count) {
+        for (int i = 0; i < count; i++) {
+            frames.add(new Frame("event", newEvents(1)));
+        }
+        return this;
+    }
+
+    int getEventCount() {
+        int count = 0;
+        for (Frame frame : frames) {
+            count += frame.events.size();
+        }
+        return count;
+    }
+
+    byte[] toBytes() {
+        OrbMsgPackWriter writer = new OrbMsgPackWriter();
+        writer.writeArrayHeader(frames.size());
+        for (Frame frame : frames) {
+            HashMap<String, Object> map = new HashMap<>();
+            map.put("callback", frame.callback);
+            map.put("events", frame.events);
+            writer.write(map);
+        }
+        return writer.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    static OrbLoopbackTraffic fromBytes(byte[] bytes) {
+        OrbLoopbackTraffic traffic = new OrbLoopbackTraffic();
+        for (Object value : (List<Object>) new OrbMsgPackReader(bytes).read()) {
+            Map<String, Object> map = (Map<String, Object>) value;
+            traffic.frames.add(new Frame(
+                    (String) map.get("callback"),
+                    (List<Map<String, Object>>) (List<?>) map.get("events")
+            ));
+        }
+        return traffic;
+    }
+
+    /**
+     * Replays the traffic, pacing the events at {@code eventsPerSecond}
+     * (0 for as fast as possible), and waits up to {@code drainTimeout}
+     * milliseconds for the listeners to receive all events.
+     *
+     * Events count as delivered when an event, first connect or reconnect
+     * listener receives them; events never delivered count as dropped.
+     */
+    Report replay(OrbPlugin plugin, OrbLoopbackMessenger messenger, int eventsPerSecond, boolean delta,
+                  long drainTimeout) throws InterruptedException {
+        final ConcurrentHashMap<String, Long> pending = new ConcurrentHashMap<>();
+        final OrbHistogram latency = new OrbHistogram();
+        final AtomicLong delivered = new AtomicLong();
+        Orb.EventListener eventListener = new Orb.EventListener() {
+            @Override
+            public void onEvent(Map<String, Object> event, List<Map<String, Object>> eventStream) {
+                deliver(pending, latency, delivered, (String) event.get("id"));
+            }
+        };
+        Orb.FirstConnectListener firstConnectListener = new Orb.FirstConnectListener() {
+            @Override
+            public void onFirstConnect(List<Map<String, Object>> eventStream) {
+                for (Map<String, Object> event : eventStream) {
+                    deliver(pending, latency, delivered, (String) event.get("id"));
+                }
+            }
+        };
+        Orb.ReconnectListener reconnectListener = new Orb.ReconnectListener() {
+            @Override
+            public void onReconnect(List<Map<String, Object>> eventStream) {
+                for (Map<String, Object> event : eventStream) {
+                    deliver(pending, latency, delivered, (String) event.get("id"));
+                }
+            }
+        };
+        plugin.addListener(plugin.eventListeners, "event", eventListener, delta);
+        plugin.addListener(plugin.firstConnectListeners, "firstConnect", firstConnectListener, delta);
+        plugin.addListener(plugin.reconnectListeners, "reconnect", reconnectListener, delta);
+
+        int sent = 0;
+        long interval = eventsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / eventsPerSecond : 0;
+        long start = System.nanoTime();
+        for (Frame frame : frames) {
+            long due = start + sent * interval;
+            long wait = due - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+            switch (frame.callback) {
+                case "ready":
+                    messenger.ready();
+                    break;
+                case "connected":
+                    messenger.connected("t-loopback");
+                    break;
+                case "disconnected":
+                    messenger.disconnected();
+                    break;
+                default:
+                    long now = System.nanoTime();
+                    for (Map<String, Object> event : frame.events) {
+                        pending.put((String) event.get("id"), now);
+                    }
+                    messenger.receive(frame.callback, frame.events);
+                    sent += frame.events.size();
+                    break;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeout);
+        while (!pending.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        plugin.removeListener(plugin.eventListeners, "event", eventListener);
+        plugin.removeListener(plugin.firstConnectListeners, "firstConnect", firstConnectListener);
+        plugin.removeListener(plugin.reconnectListeners, "reconnect", reconnectListener);
+        return new Report(
+                frames.size(), sent, nanos, latency.snapshot(), (int) delivered.get(),
+                Collections.unmodifiableSet(new java.util.HashSet<>(pending.keySet()))
+        );
+    }
+
+    private static void deliver(Map<String, Long> pending, OrbHistogram latency, AtomicLong delivered, String id) {
+        Long sent = id != null ? pending.remove(id) : null;
+        if (sent != null) {
+            latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sent));
+            delivered.incrementAndGet();
+        }
+    }
+
+    private List<Map<String, Object>> newEvents(int count) {
+        ArrayList<Map<String, Object>> events = new ArrayList<>(count);
+        // Newest first, like the gateway's history.
+        for (int i = nextEvent + count - 1; i >= nextEvent; i--) {
+            events.add(event(i));
+        }
+        nextEvent += count;
+        return events;
+    }
+
+    private static Map<String, Object> event(int index) {
+        HashMap<String, Object> data = new HashMap<>();
+        data.put("text", "Message number " + index);
+        data.put("user_id", index % 2 == 0 ? "u-user" : "u-bot");
+        data.put("thread_id", "t-loopback");
+        HashMap<String, Object> event = new HashMap<>();
+        event.put("id", (START + index) + "-" + index);
+        event.put("type", "meya.text.event.say");
+        event.put("data", data);
+        return event;
+    }
+}
@@ -0,0 +1,32 @@
+package ai.meya.orb;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class OrbMsgPackWriterTest {
+    @Test
+    public void writesTypedArraysAndBigIntegers() {
+        Map<String, Object> value = new HashMap<>();
+        value.put("ints", new int[] {1, -2});
+        value.put("longs", new long[] {1L << 40});
+        value.put("doubles", new double[] {0.5});
+        value.put("floats", new float[] {0.25f});
+        value.put("small", BigInteger.valueOf(42));
+        value.put("large", BigInteger.ONE.shiftLeft(70));
+
+        Map<?, ?> read = (Map<?, ?>) new OrbMsgPackReader(new OrbMsgPackWriter().write(value).toByteArray()).read();
+
+        assertEquals(Arrays.<Object>asList(1, -2), read.get("ints"));
+        assertEquals(Arrays.<Object>asList(1L << 40), read.get("longs"));
+        assertEquals(Arrays.<Object>asList(0.5), read.get("doubles"));
+        assertEquals(Arrays.<Object>asList(0.25), read.get("floats"));
+        assertEquals(42, read.get("small"));
+        assertEquals(BigInteger.ONE.shiftLeft(70).toString(), read.get("large"));
+    }
+}
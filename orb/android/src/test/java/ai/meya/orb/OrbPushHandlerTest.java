@@ -0,0 +1,92 @@
+package ai.meya.orb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OrbPushHandlerTest {
+    private Executor mainThread;
+
+    @Before
+    public void runOnCallingThread() {
+        mainThread = OrbPushHandler.mainThread;
+        OrbPushHandler.mainThread = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+    }
+
+    @After
+    public void restoreMainThread() {
+        OrbPushHandler.mainThread = mainThread;
+    }
+
+    @Test
+    public void recognizesMeyaPushes() {
+        Map<String, String> data = new HashMap<>();
+        data.put("title", "Hello");
+        assertNull(OrbPushHandler.getIntegrationId(data));
+
+        data.put(OrbPushHandler.INTEGRATION_ID_KEY, "integration.orb.mobile");
+        assertEquals("integration.orb.mobile", OrbPushHandler.getIntegrationId(data));
+    }
+
+    @Test
+    public void prefetchesTheEventStream() throws Exception {
+        final OrbLoopbackMessenger messenger = new OrbLoopbackMessenger();
+        OrbPlugin plugin = messenger.attach();
+
+        OrbFuture<Boolean> prefetched = OrbPushHandler.prefetch(plugin, new Runnable() {
+            @Override
+            public void run() {
+                messenger.ready();
+                messenger.connected("t-push");
+                messenger.receive("firstConnect", Collections.singletonList(event()));
+            }
+        }, 1000);
+
+        assertTrue(prefetched.get(1, TimeUnit.SECONDS));
+        assertFalse(messenger.isSubscribed("eventStream"));
+    }
+
+    @Test
+    public void doesNotWaitForTheEventStream() {
+        final OrbLoopbackMessenger messenger = new OrbLoopbackMessenger();
+        OrbPlugin plugin = messenger.attach();
+
+        OrbFuture<Boolean> prefetched = OrbPushHandler.prefetch(plugin, new Runnable() {
+            @Override
+            public void run() {
+                messenger.ready();
+            }
+        }, 1000);
+
+        assertFalse(prefetched.isDone());
+        assertTrue(messenger.isSubscribed("eventStream"));
+        prefetched.cancel(false);
+        assertFalse(messenger.isSubscribed("eventStream"));
+    }
+
+    private static Map<String, Object> event() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("text", "You have a new message");
+        Map<String, Object> event = new HashMap<>();
+        event.put("id", "1650000000000-0");
+        event.put("type", "meya.text.event.say");
+        event.put("data", data);
+        return event;
+    }
+}
@@ -0,0 +1,41 @@
+package ai.meya.orb;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+
+public class OrbSerialExecutorTest {
+    @Test
+    public void keepsRunningAfterARejectedTask() {
+        final boolean[] rejecting = {true};
+        OrbSerialExecutor executor = new OrbSerialExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (rejecting[0]) throw new RejectedExecutionException("Shut down");
+                command.run();
+            }
+        });
+        final List<String> ran = new ArrayList<>();
+
+        executor.execute(task(ran, "first"));
+        rejecting[0] = false;
+        executor.execute(task(ran, "second"));
+
+        assertEquals(1, ran.size());
+        assertEquals("second", ran.get(0));
+    }
+
+    private static Runnable task(final List<String> ran, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+            }
+        };
+    }
+}
@@ -0,0 +1,36 @@
+package ai.meya.orb.config;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OrbConfigTest {
+    @Test
+    public void patchesSectionsChangedInPlace() {
+        OrbConfig config = new OrbConfig();
+        config.header = new OrbHeader(new Object[] {"close"}, null, progress(10), null, null);
+        config.toMap();
+
+        assertEquals(Collections.singleton("patch"), config.toPatch().keySet());
+
+        config.header.progress = progress(50);
+        Map<String, Object> patch = config.toPatch();
+        assertEquals(2, patch.size());
+        assertTrue(patch.containsKey(OrbConfig.HEADER));
+
+        config.header.buttons[0] = "back";
+        assertTrue(config.toPatch().containsKey(OrbConfig.HEADER));
+        assertEquals(1, config.toPatch().size());
+    }
+
+    private static Map<String, Object> progress(int value) {
+        Map<String, Object> progress = new HashMap<>();
+        progress.put("value", value);
+        return progress;
+    }
+}
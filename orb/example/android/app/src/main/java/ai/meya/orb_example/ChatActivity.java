@@ -0,0 +1,10 @@
+package ai.meya.orb_example;
+
+import ai.meya.orb.OrbActivity;
+
+/**
+ * Shows the conversation of a tapped Meya notification, see
+ * {@link OrbMessagingService}.
+ */
+public class ChatActivity extends OrbActivity {
+}
@@ -11,6 +11,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import ai.meya.orb.OrbConnectionOptions;
+import ai.meya.orb.OrbPushHandler;
 import ai.meya.orb.config.OrbComposer;
 import ai.meya.orb.config.OrbConfig;
 import ai.meya.orb.config.OrbHeader;
@@ -107,17 +108,13 @@ public class MainActivity extends FlutterActivity {
                 )
         );
 
-        if (!orb.ready) {
-            orb.setOnReadyListener(new Orb.ReadyListener() {
-                public void onReady() {
-                    orb.configure(config);
-                    orb.connect(connectionOptions);
-                }
-            });
-        } else {
-            orb.configure(config);
-            orb.connect(connectionOptions);
-        }
+        // Calls made before the Orb runtime is ready are queued until it is.
+        orb.configure(config);
+        orb.connect(connectionOptions);
+
+        // Lets OrbMessagingService connect the conversation of a push before
+        // it is tapped. connect() filled in the device id and token.
+        OrbPushHandler.register(config, connectionOptions);
 
         orb.setOnConnectedListener(new Orb.ConnectedListener() {
             public void onConnected() {
@@ -8,6 +8,8 @@ import android.content.Intent;
 import android.media.RingtoneManager;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import com.google.firebase.messaging.FirebaseMessagingService;
@@ -15,6 +17,7 @@ import com.google.firebase.messaging.RemoteMessage;
 
 import java.util.Map;
 
+import ai.meya.orb.OrbPushHandler;
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 import androidx.core.app.NotificationCompat;
@@ -29,24 +32,37 @@ public class OrbMessagingService extends FirebaseMessagingService {
 
         // Check if message contains a data payload.
         if (remoteMessage.getData().size() > 0) {
-            Map<String, String> data = remoteMessage.getData();
+            final Map<String, String> data = remoteMessage.getData();
             Log.d(TAG, "Message data payload: " + data);
 
             // Meya notifications always contain the "meya_integration_id" key to identify which
             // Orb Mobile integration in you app sent the notification.
             if (data.containsKey("meya_integration_id")) {
+                // Starts connecting the integration's Orb instance, if it was registered
+                // with OrbPushHandler.register, so the conversation is ready when the
+                // notification is tapped. Returns without waiting for it.
+                OrbPushHandler.onMessageReceived(this, data);
 
                 // Handle Meya notifications
                 if (remoteMessage.getNotification() != null) {
-                    RemoteMessage.Notification notification = remoteMessage.getNotification();
+                    final RemoteMessage.Notification notification = remoteMessage.getNotification();
 
                     Log.d(TAG, "Message Notification Body: " + notification.getBody());
-                    sendNotification(
-                            data.get("meya_integration_id"),
-                            "Orb Example",
-                            notification.getTitle(),
-                            notification.getBody()
-                    );
+                    // The intent may create the Orb instance, which needs the main thread.
+                    final Context context = getApplicationContext();
+                    new Handler(Looper.getMainLooper()).post(new Runnable() {
+                        @RequiresApi(api = Build.VERSION_CODES.M)
+                        @Override
+                        public void run() {
+                            sendNotification(
+                                    context,
+                                    data,
+                                    "Orb Example",
+                                    notification.getTitle(),
+                                    notification.getBody()
+                            );
+                        }
+                    });
                 }
             }
         }
@@ -60,15 +76,23 @@ public class OrbMessagingService extends FirebaseMessagingService {
     }
 
     @RequiresApi(api = Build.VERSION_CODES.M)
-    private void sendNotification(String channelId, String channelName, String title, String body) {
-        Intent intent = new Intent(this, MainActivity.class);
-        intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
-        PendingIntent pendingIntent = PendingIntent.getActivity(this, 0,
-                intent, PendingIntent.FLAG_ONE_SHOT);
+    private static void sendNotification(
+            Context context,
+            Map<String, String> data,
+            String channelName,
+            String title,
+            String body
+    ) {
+        String channelId = data.get("meya_integration_id");
+        // Opens the integration's Orb instance, which OrbPushHandler connected.
+        Intent intent = OrbPushHandler.createIntent(context, ChatActivity.class, data);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        PendingIntent pendingIntent = PendingIntent.getActivity(context, 0,
+                intent, PendingIntent.FLAG_ONE_SHOT | PendingIntent.FLAG_IMMUTABLE);
 
         Uri defaultSoundUri = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION);
         NotificationCompat.Builder notificationBuilder =
-                new NotificationCompat.Builder(this, channelId)
+                new NotificationCompat.Builder(context, channelId)
                         .setSmallIcon(R.mipmap.ic_launcher)
                         .setContentTitle(title)
                         .setContentText(body)
@@ -77,7 +101,7 @@ public class OrbMessagingService extends FirebaseMessagingService {
                         .setContentIntent(pendingIntent);
 
         NotificationManager notificationManager =
-                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
 
         // Since android Oreo notification channel is needed.
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
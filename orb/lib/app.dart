@@ -39,6 +39,9 @@ class _OrbAppState extends State<OrbApp> with WidgetsBindingObserver {
     OrbPlugin.connect = connect;
     OrbPlugin.disconnect = disconnect;
     OrbPlugin.publishEvent = publishEvent;
+    OrbPlugin.publishEvents = publishEvents;
+    OrbPlugin.resync = resync;
+    OrbPlugin.getEvents = getEvents;
     WidgetsBinding.instance!.addObserver(this);
   }
 
@@ -68,7 +71,7 @@ class _OrbAppState extends State<OrbApp> with WidgetsBindingObserver {
 
   void configure(OrbConfig Function(OrbConfig) update) {
     setState(() {
-      config = update(const OrbConfig.init());
+      config = update(config);
     });
   }
 
@@ -108,11 +111,39 @@ class _OrbAppState extends State<OrbApp> with WidgetsBindingObserver {
   }
 
   void publishEvent(Map<dynamic, dynamic> event) {
-    connection?.publishEvent(OrbEvent.fromEventMap(event));
+    _requireConnection().publishEvent(OrbEvent.fromEventMap(event));
+  }
+
+  void publishEvents(List<dynamic> events, {List<dynamic>? requestIds}) {
+    // Events from the native outbox are only accepted while connected, so
+    // that they stay queued otherwise.
+    if (requestIds != null && connection?.connected != true) {
+      throw PlatformException(
+        code: 'disconnected',
+        message: 'Orb is not connected',
+      );
+    }
+    _requireConnection().publishEvents(
+      events.map((event) => OrbEvent.fromEventMap(event)).toList(),
+      requestIds: requestIds?.cast<String>(),
+    );
+  }
+
+  List<OrbEvent> getEvents() => _requireConnection().getEventStream().events;
+
+  OrbConnection _requireConnection() {
+    final connection = this.connection;
+    if (connection == null) {
+      throw PlatformException(
+        code: 'disconnected',
+        message: 'Orb has no connection',
+      );
+    }
+    return connection;
   }
 
   void onConnected() {
-    OrbPlugin.connected();
+    OrbPlugin.connected(threadId: connection?.threadId);
   }
 
   void onDisconnected() {
@@ -123,14 +154,14 @@ class _OrbAppState extends State<OrbApp> with WidgetsBindingObserver {
     if (!OrbPlugin.isSubscribed('firstConnect')) {
       return;
     }
-    OrbPlugin.firstConnect(eventStream.rawEvents);
+    OrbPlugin.firstConnect(eventStream.events);
   }
 
   void onReconnect({required OrbEventStream eventStream}) {
     if (!OrbPlugin.isSubscribed('reconnect')) {
       return;
     }
-    OrbPlugin.reconnect(eventStream.rawEvents);
+    OrbPlugin.reconnect(eventStream.events);
   }
 
   void onEvent({required OrbEventStream eventStream, required OrbEvent event}) {
@@ -140,7 +171,7 @@ class _OrbAppState extends State<OrbApp> with WidgetsBindingObserver {
     if (!OrbPlugin.isSubscribed('event')) {
       return;
     }
-    OrbPlugin.event(event.toEventMap(), eventStream.rawEvents);
+    OrbPlugin.event(event, eventStream.events);
   }
 
   void onEventStream({required OrbEventStream eventStream}) {
@@ -150,7 +181,16 @@ class _OrbAppState extends State<OrbApp> with WidgetsBindingObserver {
     if (!OrbPlugin.isSubscribed('eventStream')) {
       return;
     }
-    OrbPlugin.eventStream(eventStream.rawEvents);
+    OrbPlugin.eventStream(eventStream.events);
+  }
+
+  void resync(String name) {
+    final events = connection?.getEventStream().events ?? const <OrbEvent>[];
+    if (name == 'event' && OrbPlugin.isSubscribed('event')) {
+      OrbPlugin.event(null, events);
+    } else if (name == 'eventStream' && OrbPlugin.isSubscribed('eventStream')) {
+      OrbPlugin.eventStream(events);
+    }
   }
 
   void onCloseUi() {
@@ -112,6 +112,8 @@ class OrbConnection {
 
   bool get connected => _connected;
 
+  String? get threadId => _threadId;
+
   bool get enableCloseButton => _enableCloseButton != false;
 
   AppLifecycleState get deviceState => _deviceState;
@@ -318,19 +320,32 @@ class OrbConnection {
   }
 
   void publishEvent(OrbEvent event) {
+    _channel?.sink.add(serialize(_publishRequest(event)));
+  }
+
+  void publishEvents(List<OrbEvent> events, {List<String>? requestIds}) {
+    final sink = _channel?.sink;
+    if (sink == null) return;
+    for (var i = 0; i < events.length; i++) {
+      sink.add(
+        serialize(_publishRequest(events[i], requestId: requestIds?[i])),
+      );
+    }
+  }
+
+  Map<String, dynamic> _publishRequest(OrbEvent event, {String? requestId}) {
     final eventMap = {
       'type': event.type,
       'data': event.data,
     };
-    final payloadMap = {
+    return {
       'type': 'meya.orb.entry.ws.publish_request',
       'data': {
-        'request_id': OrbUtil.uuid4Hex(),
+        'request_id': requestId ?? OrbUtil.uuid4Hex(),
         'event': eventMap,
         'thread_id': _threadId,
       }
     };
-    _channel?.sink.add(serialize(payloadMap));
   }
 
   Map<dynamic, dynamic>? getConfigData() {
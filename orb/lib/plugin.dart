@@ -1,18 +1,32 @@
 import 'dart:async';
+import 'dart:math';
+import 'dart:typed_data';
 
 import 'package:flutter/services.dart';
 
+import 'package:msgpack_dart/msgpack_dart.dart';
+
 import 'package:orb/config.dart';
 import 'package:orb/connection.dart';
+import 'package:orb/design.dart';
 import 'package:orb/event.dart';
 
 class OrbPlugin {
   static const MethodChannel channel = MethodChannel('orb');
+  static const BasicMessageChannel<ByteData> binaryChannel =
+      BasicMessageChannel('orb/binary', BinaryCodec());
   static void Function(OrbConfig Function(OrbConfig))? configure;
   static void Function(ConnectionOptions)? connect;
   static void Function({required bool logOut})? disconnect;
   static void Function(Map<dynamic, dynamic>)? publishEvent;
-  static Set<String?> subscriptions = {};
+  static void Function(List<dynamic>, {List<dynamic>? requestIds})?
+      publishEvents;
+  static void Function(String)? resync;
+  static List<OrbEvent> Function()? getEvents;
+  static Map<String?, Map<dynamic, dynamic>> subscriptions = {};
+  static final Map<String, _OrbDelta> _deltas = {};
+  // The event types of the subscriptions that only want some of them.
+  static final Map<String, Set<String>> _types = {};
 
   static void init() {
     channel.setMethodCallHandler(nativeMethodCallHandler);
@@ -23,6 +37,10 @@ class OrbPlugin {
     final Map<dynamic, dynamic> arguments = call.arguments;
     switch (method) {
       case 'configure':
+        // A patch only contains the sections that changed, the other
+        // sections of the current config are kept as they are.
+        final bool patch = arguments['patch'] ?? false;
+        bool has(String section) => !patch || arguments.containsKey(section);
         final Map<dynamic, dynamic> theme = arguments['theme'] ?? {};
         final Map<dynamic, dynamic> composer = arguments['composer'] ?? {};
         final Map<dynamic, dynamic> header = arguments['header'] ?? {};
@@ -32,65 +50,80 @@ class OrbPlugin {
         final Map<dynamic, dynamic> splash = arguments['splash'] ?? {};
         final Map<dynamic, dynamic> mediaUpload =
             arguments['mediaUpload'] ?? {};
-        configure?.call(
-          (config) => config.copyWith(
-            theme: config.theme.copyWith(
-              brandColor: theme['brandColor'],
-              backgroundTranslucency: theme['backgroundTranslucency'],
-            ),
-            composer: config.composer.copyWith(
-              focus: OrbComposerFocusExtension.fromString(composer['focus']),
-              placeholder: composer['placeholder'],
-              collapsePlaceholder: composer['collapsePlaceholder'],
-              visibility: OrbComposerVisibilityExtension.fromString(
-                composer['visibility'],
-              ),
-              placeholderText: composer['placeholderText'],
-              collapsePlaceholderText: composer['collapsePlaceholderText'],
-              fileButtonText: composer['fileButtonText'],
-              fileSendText: composer['fileSendText'],
-              imageButtonText: composer['imageButtonText'],
-              cameraButtonText: composer['cameraButtonText'],
-              galleryButtonText: composer['galleryButtonText'],
-            ),
-            header: config.header.copyWith(
-              buttons: header['buttons'],
-              title: OrbHeaderTitleEventSpec.fromMap(
-                headerTitle != null
-                    ? {
-                        'icon': headerTitle['title'],
-                        'title': headerTitle['title'],
-                      }
-                    : null,
-              ),
-              progress: OrbHeaderProgressEventSpec.fromMap(
-                headerProgress != null
-                    ? {
-                        'value': headerProgress['value'],
-                        'show_percent': headerProgress['showPercent'],
-                      }
-                    : null,
-              ),
-              milestones: header['milestones'],
-              extraButtons: header['extraButtons'],
-            ),
-            menu: config.menu.copyWith(
-              closeText: menu['closeText'],
-              backText: menu['backText'],
-            ),
-            splash: config.splash.copyWith(
-              readyText: splash['readyText'],
-            ),
-            mediaUpload: config.mediaUpload.copyWith(
-              all: mediaUpload['all'],
-              image: mediaUpload['image'],
-              file: mediaUpload['file'],
-            ),
+        _handler(configure, method)(
+          (config) => (patch ? config : const OrbConfig.init()).copyWith(
+            theme: !has('theme')
+                ? null
+                : const OrbThemeConfigSpec.init().copyWith(
+                    brandColor: theme['brandColor'],
+                    backgroundTranslucency: theme['backgroundTranslucency'],
+                  ),
+            composer: !has('composer')
+                ? null
+                : const OrbComposerConfigSpec.init().copyWith(
+                    focus: OrbComposerFocusExtension.fromString(
+                      composer['focus'],
+                    ),
+                    placeholder: composer['placeholder'],
+                    collapsePlaceholder: composer['collapsePlaceholder'],
+                    visibility: OrbComposerVisibilityExtension.fromString(
+                      composer['visibility'],
+                    ),
+                    placeholderText: composer['placeholderText'],
+                    collapsePlaceholderText:
+                        composer['collapsePlaceholderText'],
+                    fileButtonText: composer['fileButtonText'],
+                    fileSendText: composer['fileSendText'],
+                    imageButtonText: composer['imageButtonText'],
+                    cameraButtonText: composer['cameraButtonText'],
+                    galleryButtonText: composer['galleryButtonText'],
+                  ),
+            header: !has('header')
+                ? null
+                : const OrbHeaderConfigSpec.init().copyWith(
+                    buttons: header['buttons'],
+                    title: OrbHeaderTitleEventSpec.fromMap(
+                      headerTitle != null
+                          ? {
+                              'icon': headerTitle['title'],
+                              'title': headerTitle['title'],
+                            }
+                          : null,
+                    ),
+                    progress: OrbHeaderProgressEventSpec.fromMap(
+                      headerProgress != null
+                          ? {
+                              'value': headerProgress['value'],
+                              'show_percent': headerProgress['showPercent'],
+                            }
+                          : null,
+                    ),
+                    milestones: header['milestones'],
+                    extraButtons: header['extraButtons'],
+                  ),
+            menu: !has('menu')
+                ? null
+                : const OrbMenuConfigSpec.init().copyWith(
+                    closeText: menu['closeText'],
+                    backText: menu['backText'],
+                  ),
+            splash: !has('splash')
+                ? null
+                : const OrbSplashConfigSpec.init().copyWith(
+                    readyText: splash['readyText'],
+                  ),
+            mediaUpload: !has('mediaUpload')
+                ? null
+                : const OrbMediaUploadConfigSpec.init().copyWith(
+                    all: mediaUpload['all'],
+                    image: mediaUpload['image'],
+                    file: mediaUpload['file'],
+                  ),
           ),
         );
         return 'Configure called';
       case 'connect':
-        connect?.call(
+        _handler(connect, method)(
           ConnectionOptions(
             gridUrl: arguments['gridUrl'],
             appId: arguments['appId'],
@@ -109,25 +142,95 @@ class OrbPlugin {
         );
         return 'Connect called';
       case 'disconnect':
-        disconnect?.call(logOut: arguments['logOut'] ?? false);
+        _handler(disconnect, method)(logOut: arguments['logOut'] ?? false);
         return 'Disconnect called';
       case 'publishEvent':
-        publishEvent?.call(arguments['event']);
+        _handler(publishEvent, method)(arguments['event']);
         return 'Publish event called';
+      case 'publishEvents':
+        _handler(publishEvents, method)(
+          arguments['events'] ?? [],
+          requestIds: arguments['requestIds'],
+        );
+        return 'Publish events called';
       case 'subscribe':
         final name = arguments['name'];
-        subscriptions.add(name);
+        final Map<dynamic, dynamic> options = arguments['options'] ?? {};
+        subscriptions[name] = options;
+        _deltas.remove(name);
+        final List<dynamic>? types = options['types'];
+        if (types == null) {
+          _types.remove(name);
+        } else {
+          _types[name] = types.cast<String>().toSet();
+        }
         return 'Subscribed to $name';
       case 'unsubscribe':
         final name = arguments['name'];
         subscriptions.remove(name);
+        _deltas.remove(name);
+        _types.remove(name);
         return 'Subscribed to $name';
+      case 'resync':
+        final name = arguments['name'];
+        _deltas.remove(name);
+        resync?.call(name);
+        return 'Resync called for $name';
+      case 'getEvents':
+        return _eventPage(
+          _handler(getEvents, method)(),
+          before: arguments['before'],
+          limit: arguments['limit'] ?? 20,
+        );
       default:
         return 'Unsupported method call $method';
     }
   }
 
-  static bool isSubscribed(String name) => subscriptions.contains(name);
+  /// Commands fail, rather than being silently dropped, when no app has
+  /// registered to handle them, so that the native side's futures see it.
+  static T _handler<T extends Function>(T? handler, String method) {
+    if (handler == null) {
+      throw PlatformException(
+        code: 'unavailable',
+        message: 'No Orb app is handling $method',
+      );
+    }
+    return handler;
+  }
+
+  /// A page of the event stream, newest first, so that the native side can
+  /// pull the events it shows instead of receiving the whole stream. The
+  /// cursor is the id of the page's oldest event, or null on the last page.
+  static Map<String, dynamic> _eventPage(
+    List<OrbEvent> events, {
+    String? before,
+    required int limit,
+  }) {
+    var start = 0;
+    if (before != null) {
+      final index = events.indexWhere((e) => e.id == before);
+      if (index < 0) {
+        throw PlatformException(
+          code: 'invalidCursor',
+          message: 'No event $before in the event stream',
+        );
+      }
+      start = index + 1;
+    }
+    final end = min(start + max(limit, 0), events.length);
+    final page = events.sublist(start, end);
+    return {
+      'events': _rawEvents(page),
+      'cursor': end < events.length && page.isNotEmpty ? page.last.id : null,
+    };
+  }
+
+  static bool isSubscribed(String name) => subscriptions.containsKey(name);
+
+  static bool isDelta(String name) => subscriptions[name]?['delta'] == true;
+
+  static bool isBinary(String name) => subscriptions[name]?['binary'] == true;
 
   static Future<String?> get platformVersion async {
     return await channel.invokeMethod('getPlatformVersion');
@@ -137,50 +240,157 @@ class OrbPlugin {
     return await channel.invokeMethod('ready');
   }
 
-  static Future<String?> connected() async {
-    return await channel.invokeMethod('connected');
+  static Future<String?> connected({String? threadId}) async {
+    return await channel.invokeMethod('connected', {'threadId': threadId});
   }
 
   static Future<String?> disconnected() async {
     return await channel.invokeMethod('disconnected');
   }
 
-  static Future<String?> firstConnect(
-    List<Map<String, dynamic>> eventStream,
-  ) async {
-    return await channel
-        .invokeMethod('firstConnect', {'eventStream': eventStream});
+  static Future<String?> firstConnect(List<OrbEvent> events) async {
+    return await _invokeEventMethod(
+      'firstConnect',
+      _compactedEventStreamArguments('firstConnect', events),
+    );
   }
 
-  static Future<String?> reconnect(
-    List<Map<String, dynamic>> eventStream,
-  ) async {
-    return await channel
-        .invokeMethod('reconnect', {'eventStream': eventStream});
+  static Future<String?> reconnect(List<OrbEvent> events) async {
+    return await _invokeEventMethod(
+      'reconnect',
+      _compactedEventStreamArguments('reconnect', events),
+    );
   }
 
-  static Future<String?> event(
-    Map<String, dynamic> event,
-    List<Map<String, dynamic>> eventStream,
-  ) async {
-    return await channel.invokeMethod('event', {
-      'event': event,
-      'eventStream': eventStream,
+  static Future<String?> event(OrbEvent? event, List<OrbEvent> events) async {
+    if (event != null && !_accepts('event', event)) {
+      return null;
+    }
+    return await _invokeEventMethod('event', {
+      'event': event?.toEventMap(),
+      ..._eventStreamArguments('event', events),
     });
   }
 
-  static Future<String?> eventStream(
-    List<Map<String, dynamic>> eventStream,
-  ) async {
-    return await channel.invokeMethod(
+  static Future<String?> eventStream(List<OrbEvent> events) async {
+    return await _invokeEventMethod(
       'eventStream',
-      <String, dynamic>{
-        'eventStream': eventStream,
-      },
+      _eventStreamArguments('eventStream', events),
     );
   }
 
   static Future<String?> closeUi() async {
     return await channel.invokeMethod('closeUi');
   }
+
+  static Future<String?> _invokeEventMethod(
+    String method,
+    Map<String, dynamic> arguments,
+  ) async {
+    if (!isBinary(method)) {
+      return await channel.invokeMethod(method, arguments);
+    }
+    final frame = serialize({'method': method, 'arguments': arguments});
+    await binaryChannel.send(ByteData.sublistView(frame));
+    return null;
+  }
+
+  static List<Map<String, dynamic>> _rawEvents(Iterable<OrbEvent> events) =>
+      events.map((e) => e.toEventMap()).toList();
+
+  static bool _accepts(String name, OrbEvent event) =>
+      _types[name]?.contains(event.type) ?? true;
+
+  /// Keeps only the events of the types the subscription wants, if it
+  /// filters them, so that the others are never encoded.
+  static List<OrbEvent> _filter(String name, List<OrbEvent> events) {
+    final types = _types[name];
+    if (types == null) {
+      return events;
+    }
+    return events.where((e) => types.contains(e.type)).toList();
+  }
+
+  /// Keeps only the latest event of each kind for the ephemeral types the
+  /// subscription compacts: per type, or per type and value of the type's
+  /// data key. Adds the ids of the events dropped to [compacted].
+  static List<OrbEvent> _compact(
+    String name,
+    List<OrbEvent> events,
+    Set<String?> compacted,
+  ) {
+    final Map<dynamic, dynamic>? compaction =
+        subscriptions[name]?['compaction'];
+    if (compaction == null || compaction.isEmpty) {
+      return events;
+    }
+    final latest = <String>{};
+    final result = <OrbEvent>[];
+    // Newest first, so the first event of each kind is the latest.
+    for (final event in events) {
+      if (!compaction.containsKey(event.type)) {
+        result.add(event);
+        continue;
+      }
+      final String? key = compaction[event.type];
+      final kind =
+          key == null ? event.type : '${event.type}/${event.data[key]}';
+      if (latest.add(kind)) {
+        result.add(event);
+      } else {
+        compacted.add(event.id);
+      }
+    }
+    return result;
+  }
+
+  static Map<String, dynamic> _compactedEventStreamArguments(
+    String name,
+    List<OrbEvent> events,
+  ) {
+    final compacted = <String?>{};
+    final eventStream = _compact(name, _filter(name, events), compacted);
+    return {
+      'eventStream': _rawEvents(eventStream),
+      if (compacted.isNotEmpty) 'compacted': compacted.length,
+    };
+  }
+
+  static Map<String, dynamic> _eventStreamArguments(
+    String name,
+    List<OrbEvent> allEvents,
+  ) {
+    if (!isDelta(name)) {
+      return _compactedEventStreamArguments(name, allEvents);
+    }
+    final compacted = <String?>{};
+    final events = _compact(name, _filter(name, allEvents), compacted);
+    final previous = _deltas[name];
+    final ids = events.map((e) => e.id).toSet();
+    final removed = previous?.ids.difference(ids) ?? <String?>{};
+    // Events compacted away are removed incrementally, any other removal
+    // (e.g. a new thread) needs a full frame.
+    final full = previous == null || !compacted.containsAll(removed);
+    final delta = _OrbDelta(
+      sequence: (previous?.sequence ?? 0) + 1,
+      ids: ids,
+    );
+    _deltas[name] = delta;
+    return {
+      'sequence': delta.sequence,
+      'full': full,
+      'events': _rawEvents(
+        full ? events : events.where((e) => !previous!.ids.contains(e.id)),
+      ),
+      if (!full && removed.isNotEmpty) 'removed': removed.toList(),
+      if (compacted.isNotEmpty) 'compacted': compacted.length,
+    };
+  }
+}
+
+class _OrbDelta {
+  final int sequence;
+  final Set<String?> ids;
+
+  _OrbDelta({required this.sequence, required this.ids});
 }
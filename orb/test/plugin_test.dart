@@ -0,0 +1,182 @@
+import 'package:flutter/services.dart';
+
+import 'package:flutter_test/flutter_test.dart';
+
+import 'package:orb/event.dart';
+import 'package:orb/plugin.dart';
+
+const say = 'meya.text.event.say';
+const ask = 'meya.text.event.ask';
+const typing = 'meya.presence.event.typing.on';
+
+OrbEvent event(int index, String type, {String? userId}) => OrbEvent(
+      id: '${1650000000000 + index}-$index',
+      type: type,
+      data: {if (userId != null) 'user_id': userId},
+    );
+
+String id(int index) => '${1650000000000 + index}-$index';
+
+List<dynamic> ids(dynamic events) =>
+    (events as List<dynamic>).map((e) => e['id']).toList();
+
+Future<dynamic> call(String method, Map<String, dynamic> arguments) =>
+    OrbPlugin.nativeMethodCallHandler(MethodCall(method, arguments));
+
+Future<dynamic> subscribe(String name, Map<String, dynamic> options) =>
+    call('subscribe', {'name': name, 'options': options});
+
+void main() {
+  TestWidgetsFlutterBinding.ensureInitialized();
+
+  final calls = <MethodCall>[];
+
+  setUp(() {
+    calls.clear();
+    OrbPlugin.channel.setMockMethodCallHandler((methodCall) async {
+      calls.add(methodCall);
+      return null;
+    });
+  });
+
+  tearDown(() async {
+    OrbPlugin.channel.setMockMethodCallHandler(null);
+    OrbPlugin.getEvents = null;
+    await call('unsubscribe', {'name': 'event'});
+    await call('unsubscribe', {'name': 'eventStream'});
+  });
+
+  group('getEvents', () {
+    final events = [for (var i = 5; i > 0; i--) event(i, say)];
+
+    setUp(() {
+      OrbPlugin.getEvents = () => events;
+    });
+
+    test('pages through the event stream newest first', () async {
+      final first = await call('getEvents', {'before': null, 'limit': 2});
+      expect(ids(first['events']), [id(5), id(4)]);
+      expect(first['cursor'], id(4));
+
+      final second = await call('getEvents', {'before': id(4), 'limit': 2});
+      expect(ids(second['events']), [id(3), id(2)]);
+
+      final last = await call('getEvents', {'before': id(2), 'limit': 2});
+      expect(ids(last['events']), [id(1)]);
+      expect(last['cursor'], isNull);
+    });
+
+    test('rejects unknown cursors', () async {
+      await expectLater(
+        call('getEvents', {'before': id(9), 'limit': 2}),
+        throwsA(
+          isA<PlatformException>()
+              .having((e) => e.code, 'code', 'invalidCursor'),
+        ),
+      );
+    });
+  });
+
+  group('type filters', () {
+    test('drops events of other types before sending them', () async {
+      await subscribe('event', {
+        'types': [say],
+      });
+      final events = [event(3, typing), event(2, say), event(1, ask)];
+
+      await OrbPlugin.event(events[0], events);
+      expect(calls, isEmpty);
+
+      await OrbPlugin.event(events[1], events.sublist(1));
+      expect(calls.single.method, 'event');
+      expect(calls.single.arguments['event']['id'], id(2));
+      expect(ids(calls.single.arguments['eventStream']), [id(2)]);
+    });
+
+    test('sends every event without a filter', () async {
+      await subscribe('event', {});
+      final events = [event(2, typing), event(1, say)];
+
+      await OrbPlugin.event(events[0], events);
+
+      expect(ids(calls.single.arguments['eventStream']), [id(2), id(1)]);
+    });
+  });
+
+  group('compaction', () {
+    test('keeps the latest event of each compacted kind', () async {
+      await subscribe('eventStream', {
+        'compaction': {typing: 'user_id'},
+      });
+
+      await OrbPlugin.eventStream([
+        event(4, typing, userId: 'u-1'),
+        event(3, typing, userId: 'u-2'),
+        event(2, typing, userId: 'u-1'),
+        event(1, say),
+      ]);
+
+      final arguments = calls.single.arguments;
+      expect(ids(arguments['eventStream']), [id(4), id(3), id(1)]);
+      expect(arguments['compacted'], 1);
+    });
+
+    test('sends compacted events as removals in delta frames', () async {
+      await subscribe('eventStream', {
+        'delta': true,
+        'compaction': {typing: null},
+      });
+
+      await OrbPlugin.eventStream([event(2, typing), event(1, say)]);
+      await OrbPlugin.eventStream(
+        [event(3, typing), event(2, typing), event(1, say)],
+      );
+
+      final first = calls[0].arguments;
+      expect(first['sequence'], 1);
+      expect(first['full'], true);
+      expect(ids(first['events']), [id(2), id(1)]);
+
+      final second = calls[1].arguments;
+      expect(second['sequence'], 2);
+      expect(second['full'], false);
+      expect(ids(second['events']), [id(3)]);
+      expect(second['removed'], [id(2)]);
+      expect(second['compacted'], 1);
+    });
+
+    test('sends a full frame for other removals', () async {
+      await subscribe('eventStream', {
+        'delta': true,
+        'compaction': {typing: null},
+      });
+
+      await OrbPlugin.eventStream([event(2, say), event(1, say)]);
+      await OrbPlugin.eventStream([event(3, say)]);
+
+      final second = calls[1].arguments;
+      expect(second['full'], true);
+      expect(ids(second['events']), [id(3)]);
+      expect(second.containsKey('removed'), false);
+    });
+
+    test('filters before compacting delta frames', () async {
+      await subscribe('eventStream', {
+        'delta': true,
+        'types': [say, typing],
+        'compaction': {typing: null},
+      });
+
+      await OrbPlugin.eventStream([event(3, ask), event(2, typing)]);
+      await OrbPlugin.eventStream(
+        [event(5, typing), event(4, ask), event(3, ask), event(2, typing)],
+      );
+
+      expect(ids(calls[0].arguments['events']), [id(2)]);
+      final second = calls[1].arguments;
+      expect(second['full'], false);
+      expect(ids(second['events']), [id(5)]);
+      expect(second['removed'], [id(2)]);
+    });
+  });
+}